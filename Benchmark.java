@@ -0,0 +1,487 @@
+/*
+Ilenia Cataudella
+
+Benchmark dei tre esercizi su carichi sintetici riproducibili.
+
+Carichi generati (sempre con lo stesso seme, quindi identici a ogni esecuzione):
+- Esercizio1: alberi nel formato <inferiore>,<superiore> a forma di catena (profondità massima), di stella (un solo
+  livello molto largo) e casuali (ogni nodo sceglie il padre fra i nodi precedenti).
+- Esercizio2: stringhe binarie casuali (con più zeri che uni, così restano decodificabili) da 1 KB in su.
+- Esercizio3: grafi nel formato di file_Esercizio3 a griglia (4 vicini), geometrici casuali (punti nel quadrato
+  unitario collegati entro un raggio scelto per avere grado medio 6) e a invarianza di scala (Barabási-Albert,
+  2 archi per nodo); i pesi sono interi fra 1 e 100. Le coppie sorgente-destinazione sono estratte una volta per
+  grafo e percorse a rotazione.
+
+Misura:
+ogni benchmark esegue alcune iterazioni di riscaldamento, per lasciare compilare il codice al JIT, e poi le
+iterazioni misurate; ogni iterazione ripete l'operazione finché non è trascorso il tempo minimo e ne ricava il tempo
+medio per operazione. Vengono stampati media, deviazione standard e minimo delle iterazioni; i risultati delle
+operazioni confluiscono in un accumulatore volatile, così il JIT non può eliminare il calcolo. Con --csv i risultati
+vengono salvati in un file che, passato a una esecuzione successiva con --confronta, diventa la baseline: per ogni
+benchmark viene stampata la variazione percentuale rispetto ad essa.
+Tutto il lavoro avviene in un thread con uno stack da 2 GB, necessario alla DFS ricorsiva di Esercizio1 sulle
+catene lunghe. Le stringhe più lunghe di Esercizio2 (fino a 1 GB con --dimensioni-stringhe) richiedono circa
+5 byte per carattere, quindi un heap adeguato (-Xmx).
+*/
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.IntSupplier;
+
+public class Benchmark {
+
+    static final long SEME = 20240601L;
+
+    // Accumulatore dei risultati, letto a fine esecuzione per impedire l'eliminazione del codice misurato.
+    private static volatile long accumulatore;
+
+    /* Risultato di un benchmark: tempi per operazione, in nanosecondi, delle iterazioni misurate. */
+    private static final class Risultato {
+        final String nome;
+        final double[] tempi;
+
+        Risultato(String nome, double[] tempi) {
+            this.nome = nome;
+            this.tempi = tempi;
+        }
+
+        double media() {
+            double somma = 0;
+            for (double t : tempi) {
+                somma += t;
+            }
+            return somma / tempi.length;
+        }
+
+        double deviazione() {
+            double media = media();
+            double somma = 0;
+            for (double t : tempi) {
+                somma += (t - media) * (t - media);
+            }
+            return tempi.length > 1 ? Math.sqrt(somma / (tempi.length - 1)) : 0.0;
+        }
+
+        double minimo() {
+            double minimo = Double.POSITIVE_INFINITY;
+            for (double t : tempi) {
+                minimo = Math.min(minimo, t);
+            }
+            return minimo;
+        }
+    }
+
+    private static final class Opzioni {
+        static final String USO = "Esempio: java Benchmark [opzioni]\n"
+                + "  --filtro <testo>        esegue solo i benchmark il cui nome contiene il testo\n"
+                + "  --riscaldamento <k>     iterazioni di riscaldamento (default 3)\n"
+                + "  --iterazioni <k>        iterazioni misurate (default 5)\n"
+                + "  --tempo <ms>            durata minima di ogni iterazione in millisecondi (default 500)\n"
+                + "  --nodi-albero <n,...>   dimensioni degli alberi di Esercizio1 (default 10000,100000)\n"
+                + "  --dimensioni-stringhe <b,...>  lunghezze delle stringhe di Esercizio2 in byte\n"
+                + "                          (default 1024,65536,1048576,16777216)\n"
+                + "  --nodi-grafo <n,...>    numero di nodi dei grafi di Esercizio3 (default 1000,10000)\n"
+                + "  --cartella <d>          cartella dei file generati (default una cartella temporanea)\n"
+                + "  --csv <f>               salva i risultati nel file f\n"
+                + "  --confronta <f>         confronta i risultati con la baseline salvata in f";
+
+        String filtro = "";
+        int riscaldamento = 3;
+        int iterazioni = 5;
+        long tempoMinimo = 500;
+        int[] nodiAlbero = {10_000, 100_000};
+        int[] dimensioniStringhe = {1 << 10, 1 << 16, 1 << 20, 1 << 24};
+        int[] nodiGrafo = {1_000, 10_000};
+        String cartella;
+        String csv;
+        String confronta;
+
+        static Opzioni leggi(String[] args) {
+            Opzioni opzioni = new Opzioni();
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--filtro":
+                        opzioni.filtro = valore(args, ++i);
+                        break;
+                    case "--riscaldamento":
+                        opzioni.riscaldamento = interi(args, ++i)[0];
+                        break;
+                    case "--iterazioni":
+                        opzioni.iterazioni = Math.max(1, interi(args, ++i)[0]);
+                        break;
+                    case "--tempo":
+                        opzioni.tempoMinimo = interi(args, ++i)[0];
+                        break;
+                    case "--nodi-albero":
+                        opzioni.nodiAlbero = interi(args, ++i);
+                        break;
+                    case "--dimensioni-stringhe":
+                        opzioni.dimensioniStringhe = interi(args, ++i);
+                        break;
+                    case "--nodi-grafo":
+                        opzioni.nodiGrafo = interi(args, ++i);
+                        break;
+                    case "--cartella":
+                        opzioni.cartella = valore(args, ++i);
+                        break;
+                    case "--csv":
+                        opzioni.csv = valore(args, ++i);
+                        break;
+                    case "--confronta":
+                        opzioni.confronta = valore(args, ++i);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Opzione non valida: " + args[i]);
+                }
+            }
+            return opzioni;
+        }
+
+        static String valore(String[] args, int i) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException("Valore mancante per l'opzione " + args[i - 1]);
+            }
+            return args[i];
+        }
+
+        static int[] interi(String[] args, int i) {
+            String valore = valore(args, i);
+            try {
+                String[] parti = valore.split(",");
+                int[] risultato = new int[parti.length];
+                for (int j = 0; j < parti.length; j++) {
+                    risultato[j] = Integer.parseInt(parti[j].trim());
+                    if (risultato[j] < 0) {
+                        throw new NumberFormatException();
+                    }
+                }
+                return risultato;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Valore non valido per l'opzione " + args[i - 1] + ": " + valore);
+            }
+        }
+    }
+
+    private final Opzioni opzioni;
+    private final Path cartella;
+    private final List<Risultato> risultati = new ArrayList<>();
+
+    private Benchmark(Opzioni opzioni, Path cartella) {
+        this.opzioni = opzioni;
+        this.cartella = cartella;
+    }
+
+    /* Misura un'operazione: riscaldamento, poi iterazioni misurate di durata almeno tempoMinimo. */
+    private void misura(String nome, IntSupplier operazione) {
+        if (!nome.contains(opzioni.filtro)) {
+            return;
+        }
+        long accumulato = 0;
+        double[] tempi = new double[opzioni.iterazioni];
+        for (int iterazione = -opzioni.riscaldamento; iterazione < opzioni.iterazioni; iterazione++) {
+            long inizio = System.nanoTime();
+            long limite = inizio + opzioni.tempoMinimo * 1_000_000L;
+            long operazioni = 0;
+            long adesso;
+            do {
+                accumulato += operazione.getAsInt();
+                operazioni++;
+                adesso = System.nanoTime();
+            } while (adesso < limite);
+            if (iterazione >= 0) {
+                tempi[iterazione] = (double) (adesso - inizio) / operazioni;
+            }
+        }
+        accumulatore += accumulato;
+        Risultato risultato = new Risultato(nome, tempi);
+        risultati.add(risultato);
+        System.out.printf("%-45s %14.1f ns/op  +- %12.1f  (min %14.1f)%n", nome, risultato.media(),
+                risultato.deviazione(), risultato.minimo());
+    }
+
+    // ---------------------------------------------------------------- Esercizio1
+
+    /* Scrive un albero di n nodi: forma "catena", "stella" oppure "casuale". Ogni riga è <figlio>,<padre>. */
+    private Path generaAlbero(String forma, int n) throws IOException {
+        Path file = cartella.resolve("albero_" + forma + "_" + n + ".txt");
+        Random casuale = new Random(SEME + n);
+        try (BufferedWriter uscita = Files.newBufferedWriter(file)) {
+            for (int figlio = 1; figlio < n; figlio++) {
+                int padre;
+                if (forma.equals("catena")) {
+                    padre = figlio - 1;
+                } else if (forma.equals("stella")) {
+                    padre = 0;
+                } else {
+                    padre = casuale.nextInt(figlio);
+                }
+                uscita.write("C" + figlio + ",C" + padre);
+                uscita.newLine();
+            }
+        }
+        return file;
+    }
+
+    private void esercizio1() throws IOException {
+        for (String forma : new String[]{"catena", "stella", "casuale"}) {
+            for (int n : opzioni.nodiAlbero) {
+                String nome = "Esercizio1." + "%s/" + forma + "/" + n;
+                if (!String.format(nome, "costruisciAlbero").contains(opzioni.filtro)
+                        && !String.format(nome, "dfs").contains(opzioni.filtro)) {
+                    continue;
+                }
+                String file = generaAlbero(forma, n).toString();
+                misura(String.format(nome, "costruisciAlbero"), () -> {
+                    Esercizio1.svuotaAlbero();
+                    return Esercizio1.costruisciAlbero(file) ? 1 : 0;
+                });
+                Esercizio1.svuotaAlbero();
+                Esercizio1.costruisciAlbero(file);
+                String radice = Esercizio1.trovaRadice();
+                misura(String.format(nome, "dfs"), () -> Esercizio1.visita(radice) ? 1 : 0);
+                Esercizio1.svuotaAlbero();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- Esercizio2
+
+    /* Stringa binaria di lunghezza data formata da codici della consegna scelti a caso, così da avere sempre
+    almeno una decodifica e un numero di decodifiche che cresce con la lunghezza; la coda troppo corta per il
+    codice estratto viene completata con il codice "0". */
+    private static String generaStringa(int lunghezza) {
+        Random casuale = new Random(SEME + lunghezza);
+        StringBuilder stringa = new StringBuilder(lunghezza);
+        while (stringa.length() < lunghezza) {
+            String codice = Esercizio2.codici[casuale.nextInt(Esercizio2.codici.length)];
+            stringa.append(stringa.length() + codice.length() <= lunghezza ? codice : "0");
+        }
+        return stringa.toString();
+    }
+
+    /* Le stringhe lunghe hanno più di 2^63 - 1 decodifiche: l'overflow si propaga nei posti del contatore, quindi il
+    conteggio viene comunque eseguito tutto e l'eccezione arriva solo alla lettura del risultato. */
+    private static int decodificheLong(Esercizio2.SequenzaBinaria sequenza) {
+        try {
+            return Esercizio2.decodifiche(sequenza, Esercizio2.automaConsegna, Esercizio2.Aritmetica.LONG.crea(0))
+                    .hashCode();
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    private void esercizio2() {
+        for (int lunghezza : opzioni.dimensioniStringhe) {
+            String nome = "Esercizio2.decodifichePossibili/" + lunghezza;
+            if (!nome.contains(opzioni.filtro)) {
+                continue;
+            }
+            // Il percorso del main con l'aritmetica predefinita: sequenza compatta e long con controllo dell'overflow.
+            Esercizio2.SequenzaBinaria sequenza = Esercizio2.SequenzaBinaria.da(generaStringa(lunghezza));
+            misura(nome, () -> decodificheLong(sequenza));
+        }
+        for (int lunghezza : opzioni.dimensioniStringhe) {
+            String nome = "Esercizio2.compatta/" + lunghezza;
+            if (!nome.contains(opzioni.filtro)) {
+                continue;
+            }
+            Esercizio2.SequenzaBinaria sequenza = Esercizio2.SequenzaBinaria.da(generaStringa(lunghezza));
+            misura(nome, () -> Esercizio2.decodifiche(sequenza, Esercizio2.automaConsegna,
+                    Esercizio2.Aritmetica.MODULARE.crea(1_000_000_007L)).hashCode());
+        }
+    }
+
+    // ---------------------------------------------------------------- Esercizio3
+
+    /* Scrive un grafo nel formato di file_Esercizio3: "griglia", "geometrico" oppure "scalalibera". */
+    private Path generaGrafo(String tipo, int n) throws IOException {
+        Random casuale = new Random(SEME + n);
+        List<int[]> archi = new ArrayList<>();
+        if (tipo.equals("griglia")) {
+            int lato = (int) Math.ceil(Math.sqrt(n));
+            for (int v = 0; v < n; v++) {
+                if ((v + 1) % lato != 0 && v + 1 < n) {
+                    archi.add(new int[]{v, v + 1});
+                }
+                if (v + lato < n) {
+                    archi.add(new int[]{v, v + lato});
+                }
+            }
+        } else if (tipo.equals("geometrico")) {
+            // Raggio con grado medio 6: n * pi * r^2 = 6. I punti sono divisi in celle di lato r.
+            double raggio = Math.sqrt(6.0 / (Math.PI * n));
+            int celle = Math.max(1, (int) (1.0 / raggio));
+            double[] x = new double[n];
+            double[] y = new double[n];
+            List<List<Integer>> cella = new ArrayList<>();
+            for (int i = 0; i < celle * celle; i++) {
+                cella.add(new ArrayList<>());
+            }
+            for (int v = 0; v < n; v++) {
+                x[v] = casuale.nextDouble();
+                y[v] = casuale.nextDouble();
+                cella.get(indiceCella(x[v], y[v], celle)).add(v);
+            }
+            for (int v = 0; v < n; v++) {
+                int cx = Math.min(celle - 1, (int) (x[v] * celle));
+                int cy = Math.min(celle - 1, (int) (y[v] * celle));
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        if (cx + dx < 0 || cy + dy < 0 || cx + dx >= celle || cy + dy >= celle) {
+                            continue;
+                        }
+                        for (int u : cella.get((cx + dx) * celle + cy + dy)) {
+                            double distanzaX = x[u] - x[v];
+                            double distanzaY = y[u] - y[v];
+                            if (u > v && distanzaX * distanzaX + distanzaY * distanzaY <= raggio * raggio) {
+                                archi.add(new int[]{v, u});
+                            }
+                        }
+                    }
+                }
+            }
+        } else {
+            // Barabási-Albert: ogni nuovo nodo si collega a 2 nodi scelti con probabilità proporzionale al grado,
+            // estraendo un estremo a caso fra quelli degli archi già presenti.
+            List<Integer> estremi = new ArrayList<>();
+            archi.add(new int[]{0, 1});
+            estremi.add(0);
+            estremi.add(1);
+            for (int v = 2; v < n; v++) {
+                int primo = estremi.get(casuale.nextInt(estremi.size()));
+                int secondo = estremi.get(casuale.nextInt(estremi.size()));
+                archi.add(new int[]{primo, v});
+                if (secondo != primo) {
+                    archi.add(new int[]{secondo, v});
+                }
+                estremi.add(primo);
+                estremi.add(v);
+                if (secondo != primo) {
+                    estremi.add(secondo);
+                    estremi.add(v);
+                }
+            }
+        }
+
+        Path file = cartella.resolve("grafo_" + tipo + "_" + n + ".txt");
+        try (BufferedWriter uscita = Files.newBufferedWriter(file)) {
+            uscita.write(n + "\n" + archi.size() + "\n");
+            for (int[] arco : archi) {
+                int peso = 1 + casuale.nextInt(100);
+                uscita.write("L" + arco[0] + "_" + arco[1] + " ( N" + arco[0] + " N" + arco[1] + " ) " + peso
+                        + ".00 ( 0 )\n");
+            }
+        }
+        return file;
+    }
+
+    private static int indiceCella(double x, double y, int celle) {
+        return Math.min(celle - 1, (int) (x * celle)) * celle + Math.min(celle - 1, (int) (y * celle));
+    }
+
+    private void esercizio3() throws IOException {
+        for (String tipo : new String[]{"griglia", "geometrico", "scalalibera"}) {
+            for (int n : opzioni.nodiGrafo) {
+                String nome = "Esercizio3.%s/" + tipo + "/" + n;
+                if (!String.format(nome, "dijkstra").contains(opzioni.filtro)
+                        && !String.format(nome, "trovaCamminiDistinti").contains(opzioni.filtro)) {
+                    continue;
+                }
+                Esercizio3.GrafoCSR grafo = Esercizio3.costruisciGrafo(generaGrafo(tipo, n).toString());
+                Random casuale = new Random(SEME + 31L * n);
+                int[][] coppie = new int[1024][];
+                for (int i = 0; i < coppie.length; i++) {
+                    int s = casuale.nextInt(n);
+                    int d = casuale.nextInt(n - 1);
+                    coppie[i] = new int[]{s, d >= s ? d + 1 : d};
+                }
+                int[] prossima = new int[1];
+                misura(String.format(nome, "dijkstra"), () -> {
+                    int[] coppia = coppie[prossima[0]++ & (coppie.length - 1)];
+                    Esercizio3.Cammino c = Esercizio3.dijkstra(grafo, coppia[0], coppia[1],
+                            Esercizio3.spazioLavoro(grafo));
+                    return c == null ? 0 : c.nodi.length;
+                });
+                misura(String.format(nome, "trovaCamminiDistinti"), () -> {
+                    int[] coppia = coppie[prossima[0]++ & (coppie.length - 1)];
+                    return Esercizio3.trovaCamminiDistinti(grafo, coppia[0], coppia[1]).size();
+                });
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- baseline
+
+    private void salva(String nomeFile) throws IOException {
+        try (PrintWriter uscita = new PrintWriter(new FileWriter(nomeFile))) {
+            uscita.println("benchmark,media_ns,deviazione_ns,minimo_ns");
+            for (Risultato r : risultati) {
+                uscita.printf(Locale.US, "%s,%.1f,%.1f,%.1f%n", r.nome, r.media(), r.deviazione(), r.minimo());
+            }
+        }
+    }
+
+    private void confronta(String nomeFile) throws IOException {
+        Map<String, Double> baseline = new HashMap<>();
+        try (BufferedReader ingresso = new BufferedReader(new FileReader(nomeFile))) {
+            String riga = ingresso.readLine();
+            while ((riga = ingresso.readLine()) != null) {
+                String[] parti = riga.split(",");
+                baseline.put(parti[0], Double.parseDouble(parti[1]));
+            }
+        }
+        System.out.println();
+        System.out.println("Confronto con la baseline " + nomeFile + " (negativo = miglioramento):");
+        for (Risultato r : risultati) {
+            Double riferimento = baseline.get(r.nome);
+            if (riferimento == null) {
+                System.out.printf("%-45s %14s%n", r.nome, "nuovo");
+            } else {
+                System.out.printf("%-45s %+13.1f%%%n", r.nome, 100.0 * (r.media() - riferimento) / riferimento);
+            }
+        }
+    }
+
+    private void esegui() throws IOException {
+        System.out.println("JVM " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version")
+                + ", processori " + Runtime.getRuntime().availableProcessors()
+                + ", riscaldamento " + opzioni.riscaldamento + ", iterazioni " + opzioni.iterazioni
+                + " da almeno " + opzioni.tempoMinimo + " ms");
+        esercizio1();
+        esercizio2();
+        esercizio3();
+        if (opzioni.csv != null) {
+            salva(opzioni.csv);
+        }
+        if (opzioni.confronta != null) {
+            confronta(opzioni.confronta);
+        }
+        System.out.println("(accumulatore " + accumulatore + ")");
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Locale.setDefault(Locale.US);
+
+        Opzioni opzioni;
+        try {
+            opzioni = Opzioni.leggi(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage() + "\n" + Opzioni.USO);
+            return;
+        }
+
+        Thread esecuzione = new Thread(null, () -> {
+            try {
+                Path cartella = opzioni.cartella != null ? Files.createDirectories(Path.of(opzioni.cartella))
+                        : Files.createTempDirectory("benchmark");
+                new Benchmark(opzioni, cartella).esegui();
+            } catch (IOException e) {
+                System.out.println("Errore nei file del benchmark: " + e.getMessage());
+            }
+        }, "benchmark", 2L << 30);
+        esecuzione.start();
+        esecuzione.join();
+    }
+}
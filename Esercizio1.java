@@ -23,10 +23,40 @@ Strutture dati utilizzate:
   mettere successivamente nell'ordine corretto i nodi.
 Sono state scelte delle mappe per gestire le varie funzioni perchè hanno costo di accesso e aggiornamento costante e
 permettono di associare a ogni stringa un indice, senza aver bisogno di effettuare ulteriori conversioni.
+Con l'opzione --compatto (per alberi con milioni di nodi) i nomi vengono convertiti una sola volta in identificativi
+interi densi tramite una tabella hash a indirizzamento aperto; i figli sono memorizzati in forma CSR (un array di
+offset e uno di figli, costruiti con un counting sort in O(n)) e livelli, discendenti e colori in array di interi,
+quindi la visita non esegue ricerche su stringhe e la memoria è qualche intero per nodo più i nomi. Il costo
+resta O(n log n), dovuto all'ordinamento dei nomi in stampa.
+Con --iterativo la visita della rappresentazione compatta usa uno stack esplicito (array di interi per la pila, il
+prossimo figlio da esaminare e il conteggio parziale di ogni nodo) invece della ricorsione: il costo è lo stesso,
+O(n), ma la profondità dell'albero non è più limitata dallo stack dei thread.
+Con --thread k i discendenti vengono contati da task di un ForkJoinPool: i sottoalberi grandi vengono affidati a
+task diversi e quelli piccoli restano sequenziali, i massimi per livello di ogni task (massimo e numero di nodi alla
+pari) si uniscono con un'operazione associativa. Il lavoro totale resta O(n) ed è diviso fra i k thread; se un nodo
+ha più genitori l'input non è un albero e si usa la visita iterativa.
+Con --aggiunte l'albero visitato diventa un AlberoIncrementale, a cui gli archi si aggiungono uno alla volta:
+ogni arco risale dal genitore alla radice aggiornando i discendenti degli antenati e unisce i massimi per livello
+del sottoalbero appeso (solo massimo e nodi alla pari, perché i discendenti possono solo crescere), quindi costa
+O(profondità + livelli del sottoalbero) invece delle O(n log n) di una nuova lettura; la stampa ordina solo i
+nomi alla pari.
+Con --salva-istantanea l'albero verificato viene scritto in un file binario (tabella dei nomi in UTF-8 con le
+posizioni di inizio, genitori, livelli, discendenti e vincitori di ogni livello già ordinati, tutti come array di
+interi); con --istantanea il file viene mappato in memoria e la stampa legge solo i vincitori, quindi il costo di
+avvio non dipende da n invece di essere O(n log n) per lettura, verifica e ordinamento.
 */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class Esercizio1 {
 
@@ -42,7 +72,7 @@ public class Esercizio1 {
     Se il nodo genitore non è ancora stato registrato allora viene inizializzato con una lista vuota dei figli,
     inoltre ogni nodo figlio viene inizializzato con una lista vuota, per garantire l'esistenza della chiave e
     permettere di inserire altri nodi discendenti o individuare quali sono i nodi foglia (lista vuota). */
-    private static boolean costruisciAlbero(String nomeFile) {
+    static boolean costruisciAlbero(String nomeFile) {
         try {
             Scanner scanner = new Scanner(new FileReader(nomeFile));
             while (scanner.hasNextLine()) {
@@ -77,7 +107,7 @@ public class Esercizio1 {
     qualora esistesse più di una radice allora l'albero non viene considerato valido.
     Il nodo che non compare mai come figlio è la radice, questo viene individuato in quanto
     vengono rimossi tutti i figli dalla mappa radici possibili (il nodo restante è la radice). */
-    private static String trovaRadice() {
+    static String trovaRadice() {
         Set<String> radiciPossibili = new HashSet<>(albero.keySet());
 
         for (List<String> figli : albero.values()) {
@@ -142,6 +172,23 @@ public class Esercizio1 {
         return true;
     }
 
+    /* Esegue la visita a partire dalla radice: azzera i risultati di una eventuale visita precedente (così la
+    stessa istanza può essere analizzata più volte, per esempio dal benchmark), assegna il livello 0 alla radice e
+    richiama dfs. */
+    static boolean visita(String radice) {
+        numeroDiscendenti.clear();
+        livelli.clear();
+        colore.clear();
+        maxDiscendenti.clear();
+        livelli.put(radice, 0);
+        return dfs(radice);
+    }
+
+    // Svuota l'albero costruito, prima di leggerne un altro nella stessa esecuzione.
+    static void svuotaAlbero() {
+        albero.clear();
+    }
+
     /*Questo metodo viene utilizzato per ordinare i livelli in ordine crescente, per ogni livello
     vengono stampati in ordine lessicografico gli elementi con numero di discendenti massimo, trovati
     durante l'algoritmo DFS. Gli ordinamenti vengono svolti tramite Collection Sort. */
@@ -156,16 +203,1201 @@ public class Esercizio1 {
         }
     }
 
-    /* Il main richiama i metodi implementati, tramite delle stampe notifica eventuali errori. */
+    /* Rappresentazione compatta dell'albero, per tassonomie con decine di milioni di cladi: ogni nome viene
+    sostituito da un identificativo intero denso (0 .. n-1) e i nomi restano solo in un array, usato per la stampa.
+    I figli stanno in forma CSR: quelli del nodo v sono figli[inizioFigli[v] .. inizioFigli[v + 1]), nello stesso
+    ordine delle righe del file; livelli, discendenti e colori sono array di interi. Così non ci sono mappe con
+    valori boxed né ricerche di stringhe durante la visita, che ha la stessa semantica di dfs. */
+    static final class AlberoCompatto {
+        private static final byte BIANCO = 0;
+        private static final byte GRIGIO = 1;
+        private static final byte NERO = 2;
+
+        final String[] nomi;
+        final int[] inizioFigli;
+        final int[] figli;
+        final int radice;
+        // Genitore di ogni nodo (-1 per la radice); se un nodo ha più genitori vale l'ultimo letto.
+        final int[] genitore;
+        // Vero se almeno un nodo compare come figlio in più righe: allora la parte raggiungibile non è un albero.
+        final boolean genitoriMultipli;
+        final int[] livello;
+        final int[] discendenti;
+        private final byte[] colore;
+        // Livello che il nodo aveva al termine della sua visita (-1 se non è stato visitato).
+        private final int[] livelloVisita;
+
+        // Massimi per livello calcolati durante la visita parallela (null dopo le altre visite).
+        private Migliori migliori;
+
+        private AlberoCompatto(String[] nomi, int[] inizioFigli, int[] figli, int radice, int[] genitore,
+                               boolean genitoriMultipli) {
+            this.nomi = nomi;
+            this.inizioFigli = inizioFigli;
+            this.figli = figli;
+            this.radice = radice;
+            this.genitore = genitore;
+            this.genitoriMultipli = genitoriMultipli;
+            int n = nomi.length;
+            livello = new int[n];
+            discendenti = new int[n];
+            colore = new byte[n];
+            livelloVisita = new int[n];
+        }
+
+        /* Legge le righe <inferiore>,<superiore> assegnando gli identificativi nell'ordine di prima apparizione,
+        poi ordina gli archi per genitore con un counting sort (stabile, quindi i figli restano nell'ordine del
+        file) e individua la radice come unico nodo senza genitore. Restituisce null se le radici sono zero o più
+        di una. */
+        static AlberoCompatto leggi(String nomeFile) throws IOException {
+            Dizionario dizionario = new Dizionario();
+            int[] figlioArco = new int[1024];
+            int[] genitoreArco = new int[1024];
+            int m = 0;
+            try (BufferedReader ingresso = new BufferedReader(new FileReader(nomeFile), 1 << 16)) {
+                String riga;
+                while ((riga = ingresso.readLine()) != null) {
+                    if (riga.isEmpty()) {
+                        continue;
+                    }
+                    int virgola = riga.indexOf(',');
+                    if (virgola < 0) {
+                        throw new IOException("Riga non valida: " + riga);
+                    }
+                    int fine = riga.indexOf(',', virgola + 1);
+                    String figlio = riga.substring(0, virgola).trim();
+                    String genitore = riga.substring(virgola + 1, fine < 0 ? riga.length() : fine).trim();
+                    if (m == figlioArco.length) {
+                        figlioArco = Arrays.copyOf(figlioArco, 2 * m);
+                        genitoreArco = Arrays.copyOf(genitoreArco, 2 * m);
+                    }
+                    genitoreArco[m] = dizionario.identificativo(genitore);
+                    figlioArco[m] = dizionario.identificativo(figlio);
+                    m++;
+                }
+            }
+
+            int n = dizionario.numero;
+            int[] inizioFigli = new int[n + 1];
+            int[] genitore = new int[n];
+            Arrays.fill(genitore, -1);
+            boolean genitoriMultipli = false;
+            for (int a = 0; a < m; a++) {
+                inizioFigli[genitoreArco[a] + 1]++;
+                genitoriMultipli |= genitore[figlioArco[a]] != -1;
+                genitore[figlioArco[a]] = genitoreArco[a];
+            }
+            for (int v = 0; v < n; v++) {
+                inizioFigli[v + 1] += inizioFigli[v];
+            }
+            int[] figli = new int[m];
+            int[] prossimo = Arrays.copyOf(inizioFigli, n);
+            for (int a = 0; a < m; a++) {
+                figli[prossimo[genitoreArco[a]]++] = figlioArco[a];
+            }
+
+            int radice = -1;
+            for (int v = 0; v < n; v++) {
+                if (genitore[v] == -1) {
+                    if (radice != -1) {
+                        return null;
+                    }
+                    radice = v;
+                }
+            }
+            if (radice == -1) {
+                return null;
+            }
+            return new AlberoCompatto(dizionario.nomi(), inizioFigli, figli, radice, genitore, genitoriMultipli);
+        }
+
+        // Visita dalla radice; restituisce false se trova un ciclo.
+        boolean visita() {
+            migliori = null;
+            Arrays.fill(colore, BIANCO);
+            Arrays.fill(livelloVisita, -1);
+            livello[radice] = 0;
+            return dfs(radice);
+        }
+
+        /* Visita iterativa con uno stack esplicito, per alberi di qualunque profondità (la versione ricorsiva
+        richiede un frame per livello e con lo stack predefinito si ferma a qualche migliaio di livelli). Lo stato
+        di ogni frame sta in array di interi: pila contiene i nodi in visita, prossimo[v] l'indice del prossimo
+        figlio di v da esaminare e discendenti[v] accumula il conteggio parziale, a cui il figlio aggiunge il proprio
+        quando viene tolto dalla pila. Le operazioni avvengono nello stesso ordine di dfs, quindi anche il risultato
+        (compresi livelli e cicli) è lo stesso. */
+        boolean visitaIterativa() {
+            migliori = null;
+            Arrays.fill(colore, BIANCO);
+            Arrays.fill(livelloVisita, -1);
+            int[] pila = new int[nomi.length];
+            int[] prossimo = new int[nomi.length];
+            int cima = 0;
+            pila[0] = radice;
+            livello[radice] = 0;
+            colore[radice] = GRIGIO;
+            discendenti[radice] = 0;
+            prossimo[radice] = inizioFigli[radice];
+            while (cima >= 0) {
+                int nodo = pila[cima];
+                if (prossimo[nodo] < inizioFigli[nodo + 1]) {
+                    int figlio = figli[prossimo[nodo]++];
+                    livello[figlio] = livello[nodo] + 1;
+                    if (colore[figlio] == BIANCO) {
+                        colore[figlio] = GRIGIO;
+                        discendenti[figlio] = 0;
+                        prossimo[figlio] = inizioFigli[figlio];
+                        pila[++cima] = figlio;
+                    } else if (colore[figlio] == GRIGIO) {
+                        return false;
+                    }
+                } else {
+                    livelloVisita[nodo] = livello[nodo];
+                    colore[nodo] = NERO;
+                    cima--;
+                    if (cima >= 0) {
+                        discendenti[pila[cima]] += 1 + discendenti[nodo];
+                    }
+                }
+            }
+            return true;
+        }
+
+        /* Visita parallela con un ForkJoinPool. Se ogni nodo ha al più un genitore, la parte raggiungibile dalla radice
+        è un albero (un ciclo raggiungibile richiederebbe un nodo con due genitori), quindi i sottoalberi dei fratelli
+        sono indipendenti e possono essere contati da task diversi; altrimenti si usa visitaIterativa, che riproduce la
+        semantica di dfs anche in quei casi. */
+        boolean visitaParallela(ForkJoinPool pool) {
+            if (genitoriMultipli) {
+                return visitaIterativa();
+            }
+            Arrays.fill(livelloVisita, -1);
+            prossimo = new int[nomi.length];
+            livello[radice] = 0;
+            migliori = pool.invoke(new Sottoalbero(radice, 0));
+            prossimo = null;
+            return true;
+        }
+
+        // Prossimo figlio da esaminare per ogni nodo, usato dalla visita parallela.
+        private int[] prossimo;
+
+        /* Task che conta i discendenti del sottoalbero di radice data e ne calcola i massimi per livello. La visita
+        non usa uno stack: scende con prossimo[] e risale con genitore[], quindi funziona a qualunque profondità e
+        ogni task scrive solo le celle dei nodi del proprio sottoalbero. Scendendo in un figlio che non è l'ultimo e
+        ha a sua volta figli, il figlio viene affidato a un nuovo task se il pool ha pochi task in coda
+        (getSurplusQueuedTaskCount), altrimenti viene visitato qui: così i sottoalberi grandi vengono divisi e quelli
+        piccoli restano sequenziali. I task avviati da un nodo vengono attesi quando il nodo termina (sono in cima
+        alla pila avviati, perché quelli dei suoi discendenti sono già stati attesi), così il conteggio risale
+        completo e i loro massimi si uniscono a quelli del task. */
+        private final class Sottoalbero extends RecursiveTask<Migliori> {
+            private static final long serialVersionUID = 1L;
+            private static final int CODA_MASSIMA = 2;
+            private static final int ANNIDAMENTO_MASSIMO = 64;
+
+            private final int radiceSottoalbero;
+            private final int annidamento;
+
+            Sottoalbero(int radiceSottoalbero, int annidamento) {
+                this.radiceSottoalbero = radiceSottoalbero;
+                this.annidamento = annidamento;
+            }
+
+            protected Migliori compute() {
+                Migliori risultato = new Migliori(livello[radiceSottoalbero]);
+                ArrayDeque<Sottoalbero> avviati = new ArrayDeque<>();
+                int nodo = radiceSottoalbero;
+                discendenti[nodo] = 0;
+                prossimo[nodo] = inizioFigli[nodo];
+                while (true) {
+                    if (prossimo[nodo] < inizioFigli[nodo + 1]) {
+                        int figlio = figli[prossimo[nodo]++];
+                        livello[figlio] = livello[nodo] + 1;
+                        discendenti[figlio] = 0;
+                        prossimo[figlio] = inizioFigli[figlio];
+                        if (annidamento < ANNIDAMENTO_MASSIMO && prossimo[nodo] < inizioFigli[nodo + 1]
+                                && inizioFigli[figlio] < inizioFigli[figlio + 1]
+                                && getSurplusQueuedTaskCount() < CODA_MASSIMA) {
+                            Sottoalbero task = new Sottoalbero(figlio, annidamento + 1);
+                            task.fork();
+                            avviati.push(task);
+                        } else {
+                            nodo = figlio;
+                        }
+                    } else {
+                        while (!avviati.isEmpty() && genitore[avviati.peek().radiceSottoalbero] == nodo) {
+                            Sottoalbero task = avviati.pop();
+                            risultato.unisci(task.join());
+                            discendenti[nodo] += 1 + discendenti[task.radiceSottoalbero];
+                        }
+                        livelloVisita[nodo] = livello[nodo];
+                        risultato.aggiungi(livello[nodo], discendenti[nodo]);
+                        if (nodo == radiceSottoalbero) {
+                            return risultato;
+                        }
+                        discendenti[genitore[nodo]] += 1 + discendenti[nodo];
+                        nodo = genitore[nodo];
+                    }
+                }
+            }
+        }
+
+        // Stessa visita post-order di Esercizio1.dfs, sugli identificativi.
+        private boolean dfs(int nodo) {
+            colore[nodo] = GRIGIO;
+            int count = 0;
+            for (int i = inizioFigli[nodo]; i < inizioFigli[nodo + 1]; i++) {
+                int figlio = figli[i];
+                livello[figlio] = livello[nodo] + 1;
+                if (colore[figlio] == BIANCO) {
+                    if (!dfs(figlio)) {
+                        return false;
+                    }
+                    count += 1 + discendenti[figlio];
+                } else if (colore[figlio] == GRIGIO) {
+                    return false;
+                }
+            }
+            discendenti[nodo] = count;
+            livelloVisita[nodo] = livello[nodo];
+            colore[nodo] = NERO;
+            return true;
+        }
+
+        /* Per ogni livello trova il massimo dei discendenti fra i nodi visitati a quel livello e stampa i nomi dei
+        nodi che lo raggiungono in ordine lessicografico: è il contenuto che maxDiscendenti ha alla fine di dfs. */
+        void stampa(PrintStream uscita) {
+            int n = nomi.length;
+            Migliori calcolati = migliori;
+            if (calcolati == null) {
+                calcolati = new Migliori(0);
+                for (int v = 0; v < n; v++) {
+                    if (livelloVisita[v] >= 0) {
+                        calcolati.aggiungi(livelloVisita[v], discendenti[v]);
+                    }
+                }
+            }
+            int livelli = calcolati.livelli;
+            int[] massimo = calcolati.massimo;
+            int[] pari = calcolati.pari;
+            int[] inizio = new int[livelli + 1];
+            for (int l = 0; l < livelli; l++) {
+                inizio[l + 1] = inizio[l] + pari[l];
+            }
+            String[] migliori = new String[inizio[livelli]];
+            int[] prossimo = Arrays.copyOf(inizio, livelli);
+            for (int v = 0; v < n; v++) {
+                int l = livelloVisita[v];
+                if (l >= 0 && discendenti[v] == massimo[l]) {
+                    migliori[prossimo[l]++] = nomi[v];
+                }
+            }
+            StringBuilder testo = new StringBuilder();
+            for (int l = 0; l < livelli; l++) {
+                if (pari[l] == 0) {
+                    continue;
+                }
+                Arrays.sort(migliori, inizio[l], inizio[l + 1]);
+                testo.setLength(0);
+                testo.append(l).append(": ");
+                for (int i = inizio[l]; i < inizio[l + 1]; i++) {
+                    if (i > inizio[l]) {
+                        testo.append(", ");
+                    }
+                    testo.append(migliori[i]);
+                }
+                uscita.println(testo);
+            }
+        }
+    }
+
+    /* Massimo dei discendenti e numero di nodi che lo raggiungono per ogni livello, a partire dal livello base: è
+    la forma ridotta di maxDiscendenti (i nomi dei nodi alla pari si raccolgono e si ordinano solo in stampa).
+    L'unione di due oggetti, livello per livello, tiene il massimo maggiore o somma i nodi alla pari se i massimi
+    coincidono: è associativa e commutativa, quindi i risultati dei task si possono unire in qualunque ordine. */
+    static final class Migliori {
+        final int base;
+        int[] massimo = new int[16];
+        int[] pari = new int[16];
+        // Livelli coperti, da base a base + livelli - 1.
+        int livelli;
+
+        Migliori(int base) {
+            this.base = base;
+        }
+
+        void aggiungi(int livello, int valore) {
+            aggiungi(livello, valore, 1);
+        }
+
+        private void aggiungi(int livello, int valore, int numero) {
+            int i = livello - base;
+            if (i >= livelli) {
+                if (i >= massimo.length) {
+                    int capacita = Math.max(2 * massimo.length, i + 1);
+                    massimo = Arrays.copyOf(massimo, capacita);
+                    pari = Arrays.copyOf(pari, capacita);
+                }
+                Arrays.fill(massimo, livelli, i + 1, -1);
+                Arrays.fill(pari, livelli, i + 1, 0);
+                livelli = i + 1;
+            }
+            if (valore > massimo[i]) {
+                massimo[i] = valore;
+                pari[i] = numero;
+            } else if (valore == massimo[i]) {
+                pari[i] += numero;
+            }
+        }
+
+        // Unisce i massimi di un sottoalbero più profondo (altro.base >= base).
+        void unisci(Migliori altro) {
+            for (int i = 0; i < altro.livelli; i++) {
+                if (altro.pari[i] > 0) {
+                    aggiungi(altro.base + i, altro.massimo[i], altro.pari[i]);
+                }
+            }
+        }
+    }
+
+    /* Albero mantenuto in linea: gli archi <inferiore>,<superiore> si aggiungono uno alla volta e la stampa si può
+    chiedere in qualunque momento senza rileggere il file. Ogni componente (all'inizio un nodo isolato) ha una radice
+    e i suoi Vincitori, con i livelli contati dalla radice della componente. Aggiungere un arco appende il sottoalbero
+    del figlio, che deve essere la radice della propria componente, sotto il genitore: si risale da questo fino alla
+    radice (per controllare che non si formi un ciclo e trovarne il livello), aumentando i discendenti di ogni
+    antenato, e i Vincitori del sottoalbero si uniscono a quelli della componente spostati del livello del figlio.
+    Il costo è O(profondità + livelli del sottoalbero) per arco; i discendenti possono solo crescere, quindi per ogni
+    livello bastano il massimo e i nodi che lo raggiungono, che si ordinano per nome solo in stampa. */
+    static final class AlberoIncrementale {
+        private final Dizionario dizionario;
+        private int[] genitore;
+        private int[] discendenti;
+        // Vincitori della componente di cui il nodo è radice (null per gli altri nodi).
+        private Vincitori[] vincitori;
+        private int radici;
+        // Radice dell'ultima componente che ha assorbito un sottoalbero: è la radice dell'albero quando radici == 1.
+        private int radice;
+        private int[] percorso = new int[64];
+
+        AlberoIncrementale() {
+            dizionario = new Dizionario();
+            genitore = new int[1024];
+            discendenti = new int[1024];
+            vincitori = new Vincitori[1024];
+        }
+
+        /* Parte da un albero compatto già visitato con esito positivo, in O(n): genitori e discendenti restano quelli
+        calcolati dalla visita. I nodi non raggiunti dalla radice (ad esempio un ciclo separato, che la visita non
+        vede) non fanno parte dell'albero e vengono scartati, quindi gli identificativi possono cambiare. */
+        static AlberoIncrementale da(AlberoCompatto compatto) {
+            if (compatto.genitoriMultipli) {
+                throw new IllegalArgumentException("Un nodo ha piu' di un genitore");
+            }
+            return da(compatto.nomi, compatto.genitore, compatto.livelloVisita, compatto.discendenti, compatto.radice);
+        }
+
+        // Come sopra, partendo da un'istantanea: i nomi e gli array vengono copiati dalla memoria mappata.
+        /* Oltre ai limiti controllati dall'istantanea verifica che la radice e il genitore di ogni nodo visitato siano
+        stati visitati e che i nomi dei nodi visitati siano distinti. */
+        static AlberoIncrementale da(Istantanea istantanea) throws IOException {
+            if (istantanea.genitoriMultipli) {
+                throw new IllegalArgumentException("Un nodo ha piu' di un genitore");
+            }
+            int n = istantanea.numero;
+            String[] nomi = new String[n];
+            int[] genitore = new int[n];
+            int[] livello = new int[n];
+            int[] discendenti = new int[n];
+            int visitati = 0;
+            for (int v = 0; v < n; v++) {
+                nomi[v] = istantanea.nome(v);
+                genitore[v] = istantanea.genitore(v);
+                livello[v] = istantanea.livello(v);
+                discendenti[v] = istantanea.discendenti(v);
+                if (livello[v] >= 0) {
+                    visitati++;
+                }
+            }
+            boolean valida = livello[istantanea.radice] >= 0;
+            for (int v = 0; v < n && valida; v++) {
+                valida = livello[v] < 0 || genitore[v] < 0 || livello[genitore[v]] >= 0;
+            }
+            AlberoIncrementale albero = valida ? da(nomi, genitore, livello, discendenti, istantanea.radice) : null;
+            if (albero == null || albero.dizionario.numero != visitati) {
+                throw new IOException("Istantanea non valida: " + istantanea.nomeFile);
+            }
+            return albero;
+        }
+
+        private static AlberoIncrementale da(String[] nomi, int[] genitore, int[] livello, int[] discendenti,
+                                             int radice) {
+            int n = nomi.length;
+            int[] nuovo = new int[n];
+            int visitati = 0;
+            for (int v = 0; v < n; v++) {
+                nuovo[v] = livello[v] >= 0 ? visitati++ : -1;
+            }
+            AlberoIncrementale albero = new AlberoIncrementale();
+            int capacita = Math.max(1024, visitati);
+            albero.genitore = new int[capacita];
+            albero.discendenti = new int[capacita];
+            albero.vincitori = new Vincitori[capacita];
+            int[] livelloVisitati = new int[visitati];
+            for (int v = 0; v < n; v++) {
+                int id = nuovo[v];
+                if (id < 0) {
+                    continue;
+                }
+                albero.dizionario.identificativo(nomi[v]);
+                albero.genitore[id] = genitore[v] < 0 ? -1 : nuovo[genitore[v]];
+                albero.discendenti[id] = discendenti[v];
+                livelloVisitati[id] = livello[v];
+            }
+            albero.radice = nuovo[radice];
+            albero.vincitori[albero.radice] = Vincitori.di(livelloVisitati, albero.discendenti);
+            albero.radici = 1;
+            return albero;
+        }
+
+        /* Aggiunge l'arco figlio -> superiore, creando i nodi che non esistono ancora. Una riga già presente non
+        cambia nulla; se il figlio ha un altro genitore o l'arco chiude un ciclo l'albero resta invariato e viene
+        lanciata un'eccezione. */
+        void aggiungiArco(String figlio, String superiore) {
+            if (figlio.equals(superiore)) {
+                throw new IllegalArgumentException("L'arco " + figlio + "," + superiore + " crea un ciclo");
+            }
+            int f = dizionario.trova(figlio);
+            if (f >= 0 && genitore[f] >= 0) {
+                if (dizionario.nome(genitore[f]).equals(superiore)) {
+                    return;
+                }
+                throw new IllegalArgumentException("Il nodo " + figlio + " ha gia' il genitore "
+                        + dizionario.nome(genitore[f]));
+            }
+            int g = dizionario.trova(superiore);
+            if (g < 0) {
+                g = nuovoNodo(superiore);
+            }
+            if (f < 0) {
+                f = nuovoNodo(figlio);
+            }
+            int lunghezza = 0;
+            for (int a = g; a >= 0; a = genitore[a]) {
+                // Un cammino più lungo dei nodi esistenti vorrebbe dire un ciclo fra i genitori.
+                if (lunghezza == dizionario.numero) {
+                    throw new IllegalStateException("Ciclo fra i genitori dell'albero incrementale");
+                }
+                if (lunghezza == percorso.length) {
+                    percorso = Arrays.copyOf(percorso, 2 * lunghezza);
+                }
+                percorso[lunghezza++] = a;
+            }
+            int radice = percorso[lunghezza - 1];
+            if (radice == f) {
+                throw new IllegalArgumentException("L'arco " + figlio + "," + superiore + " crea un ciclo");
+            }
+            genitore[f] = g;
+            radici--;
+            int aggiunti = 1 + discendenti[f];
+            Vincitori migliori = vincitori[radice];
+            // percorso[k] è al livello lunghezza - 1 - k: il genitore è il più profondo, la radice è al livello 0.
+            for (int k = 0; k < lunghezza; k++) {
+                int a = percorso[k];
+                discendenti[a] += aggiunti;
+                migliori.aggiorna(lunghezza - 1 - k, a, discendenti[a]);
+            }
+            migliori.unisci(vincitori[f], lunghezza);
+            vincitori[f] = null;
+            this.radice = radice;
+        }
+
+        private int nuovoNodo(String nome) {
+            int id = dizionario.identificativo(nome);
+            if (id == genitore.length) {
+                genitore = Arrays.copyOf(genitore, 2 * id);
+                discendenti = Arrays.copyOf(discendenti, 2 * id);
+                vincitori = Arrays.copyOf(vincitori, 2 * id);
+            }
+            genitore[id] = -1;
+            discendenti[id] = 0;
+            Vincitori migliori = new Vincitori();
+            migliori.aggiorna(0, id, 0);
+            vincitori[id] = migliori;
+            if (radici++ == 0) {
+                radice = id;
+            }
+            return id;
+        }
+
+        // Vero se i nodi inseriti finora formano un singolo albero.
+        boolean singolo() {
+            return radici == 1;
+        }
+
+        int discendenti(String nome) {
+            int id = dizionario.trova(nome);
+            return id < 0 ? -1 : discendenti[id];
+        }
+
+        /* Stessa uscita di AlberoCompatto.stampa; richiede un albero singolo. Il costo è quello dell'ordinamento dei
+        nomi alla pari, cioè proporzionale a quanto viene stampato. */
+        void stampa(PrintStream uscita) {
+            if (!singolo()) {
+                throw new IllegalStateException("I dati inseriti non rappresentano un albero singolo");
+            }
+            Vincitori migliori = vincitori[radice];
+            StringBuilder testo = new StringBuilder();
+            for (int l = 0; l < migliori.livelli; l++) {
+                int pari = migliori.pari[l];
+                if (pari == 0) {
+                    continue;
+                }
+                String[] nomi = new String[pari];
+                for (int i = 0; i < pari; i++) {
+                    nomi[i] = dizionario.nome(migliori.nodi[l][i]);
+                }
+                Arrays.sort(nomi);
+                testo.setLength(0);
+                testo.append(l).append(": ");
+                for (int i = 0; i < pari; i++) {
+                    if (i > 0) {
+                        testo.append(", ");
+                    }
+                    testo.append(nomi[i]);
+                }
+                uscita.println(testo);
+            }
+        }
+    }
+
+    /* Come Migliori, ma per ogni livello tiene anche gli identificativi dei nodi alla pari, perché l'albero
+    incrementale deve poter stampare senza scorrere tutti i nodi. Un nodo cambia valore solo crescendo: se era al
+    massimo ne diventa l'unico, altrimenti al più lo raggiunge, quindi non serve una classifica completa. */
+    private static final class Vincitori {
+        int[] massimo = new int[4];
+        int[] pari = new int[4];
+        int[][] nodi = new int[4][];
+        int livelli;
+
+        // Vincitori di un albero già visitato, dati livello e discendenti di ogni nodo (livello -1 se non visitato).
+        static Vincitori di(int[] livello, int[] discendenti) {
+            Vincitori migliori = new Vincitori();
+            for (int v = 0; v < livello.length; v++) {
+                if (livello[v] >= 0) {
+                    migliori.aggiorna(livello[v], v, discendenti[v]);
+                }
+            }
+            return migliori;
+        }
+
+        private void estendi(int numero) {
+            if (numero > massimo.length) {
+                int capacita = Math.max(2 * massimo.length, numero);
+                massimo = Arrays.copyOf(massimo, capacita);
+                pari = Arrays.copyOf(pari, capacita);
+                nodi = Arrays.copyOf(nodi, capacita);
+            }
+            for (int l = livelli; l < numero; l++) {
+                massimo[l] = -1;
+                pari[l] = 0;
+                nodi[l] = null;
+            }
+            livelli = Math.max(livelli, numero);
+        }
+
+        // Il nodo, al livello dato, ha ora valore discendenti (maggiore o uguale al precedente).
+        void aggiorna(int livello, int nodo, int valore) {
+            estendi(livello + 1);
+            if (valore > massimo[livello]) {
+                massimo[livello] = valore;
+                pari[livello] = 0;
+            } else if (valore < massimo[livello]) {
+                return;
+            }
+            if (nodi[livello] == null || pari[livello] == nodi[livello].length) {
+                nodi[livello] = nodi[livello] == null ? new int[2] : Arrays.copyOf(nodi[livello], 2 * pari[livello]);
+            }
+            nodi[livello][pari[livello]++] = nodo;
+        }
+
+        // Unisce i vincitori di un sottoalbero la cui radice si trova al livello scostamento.
+        void unisci(Vincitori altro, int scostamento) {
+            estendi(altro.livelli + scostamento);
+            for (int i = 0; i < altro.livelli; i++) {
+                int l = i + scostamento;
+                if (altro.pari[i] == 0 || altro.massimo[i] < massimo[l]) {
+                    continue;
+                }
+                if (altro.massimo[i] > massimo[l]) {
+                    massimo[l] = altro.massimo[i];
+                    pari[l] = altro.pari[i];
+                    nodi[l] = altro.nodi[i];
+                    continue;
+                }
+                // A parità si copiano i nodi della lista più corta in quella più lunga.
+                int[] lunga = nodi[l];
+                int numeroLunga = pari[l];
+                int[] corta = altro.nodi[i];
+                int numeroCorta = altro.pari[i];
+                if (numeroCorta > numeroLunga) {
+                    lunga = corta;
+                    corta = nodi[l];
+                    numeroCorta = numeroLunga;
+                    numeroLunga = altro.pari[i];
+                }
+                if (numeroLunga + numeroCorta > lunga.length) {
+                    lunga = Arrays.copyOf(lunga, Math.max(2 * lunga.length, numeroLunga + numeroCorta));
+                }
+                System.arraycopy(corta, 0, lunga, numeroLunga, numeroCorta);
+                nodi[l] = lunga;
+                pari[l] = numeroLunga + numeroCorta;
+            }
+        }
+    }
+
+    /* Istantanea binaria di un albero già verificato, da cui si riparte senza rileggere il file di testo. Il file è
+    un'intestazione di 8 interi seguita da array di interi (little endian) e dalla tabella dei nomi:
+      inizioNome[n + 1]  posizione in byte di ogni nome nella tabella
+                         (il nome v è nomi[inizioNome[v] .. inizioNome[v + 1]))
+      genitore[n], livello[n], discendenti[n]
+      massimo[livelli], inizioVincitori[livelli + 1], vincitori[...]  nodi con il massimo di ogni livello, già in ordine
+      nomi                                                             i nomi in UTF-8, uno dopo l'altro
+    All'apertura ogni sezione viene mappata in memoria e non si legge nulla: la stampa decodifica solo i nomi dei
+    vincitori, quindi il costo non dipende dal numero di nodi. I valori letti vengono controllati quando servono: un
+    identificativo o una posizione fuori dai limiti fa lanciare una IOException invece di uscire dai buffer. */
+    static final class Istantanea {
+        private static final int MAGICO = 0x45533153;
+        private static final int VERSIONE = 1;
+        private static final int INTESTAZIONE = 8 * Integer.BYTES;
+
+        final String nomeFile;
+        final int numero;
+        final int radice;
+        final int livelli;
+        final boolean genitoriMultipli;
+        private final IntBuffer inizioNome;
+        private final IntBuffer genitore;
+        private final IntBuffer livello;
+        private final IntBuffer discendenti;
+        private final IntBuffer massimo;
+        private final IntBuffer inizioVincitori;
+        private final IntBuffer vincitori;
+        private final ByteBuffer nomi;
+
+        private Istantanea(FileChannel canale, String nomeFile, int numero, int radice, int livelli,
+                           int numeroVincitori, boolean genitoriMultipli, int byteNomi) throws IOException {
+            this.nomeFile = nomeFile;
+            this.numero = numero;
+            this.radice = radice;
+            this.livelli = livelli;
+            this.genitoriMultipli = genitoriMultipli;
+            long posizione = INTESTAZIONE;
+            inizioNome = mappa(canale, posizione, numero + 1);
+            posizione += 4L * (numero + 1);
+            genitore = mappa(canale, posizione, numero);
+            posizione += 4L * numero;
+            livello = mappa(canale, posizione, numero);
+            posizione += 4L * numero;
+            discendenti = mappa(canale, posizione, numero);
+            posizione += 4L * numero;
+            massimo = mappa(canale, posizione, livelli);
+            posizione += 4L * livelli;
+            inizioVincitori = mappa(canale, posizione, livelli + 1);
+            posizione += 4L * (livelli + 1);
+            vincitori = mappa(canale, posizione, numeroVincitori);
+            posizione += 4L * numeroVincitori;
+            nomi = canale.map(FileChannel.MapMode.READ_ONLY, posizione, byteNomi);
+        }
+
+        private static IntBuffer mappa(FileChannel canale, long posizione, int interi) throws IOException {
+            return canale.map(FileChannel.MapMode.READ_ONLY, posizione, 4L * interi)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+
+        private static long dimensione(int numero, int livelli, int numeroVincitori) {
+            return INTESTAZIONE + 4L * ((numero + 1) + 3L * numero + livelli + (livelli + 1) + numeroVincitori);
+        }
+
+        /* Apre un'istantanea scritta da salva; la mappatura resta valida anche dopo la chiusura del canale. */
+        static Istantanea apri(String nomeFile) throws IOException {
+            try (FileChannel canale = FileChannel.open(Paths.get(nomeFile), StandardOpenOption.READ)) {
+                if (canale.size() < INTESTAZIONE) {
+                    throw new IOException("Istantanea non valida: " + nomeFile);
+                }
+                IntBuffer intestazione = mappa(canale, 0, 8);
+                int numero = intestazione.get(2);
+                int radice = intestazione.get(3);
+                int livelli = intestazione.get(4);
+                int numeroVincitori = intestazione.get(5);
+                int byteNomi = intestazione.get(7);
+                if (intestazione.get(0) != MAGICO || intestazione.get(1) != VERSIONE || numero <= 0 || radice < 0
+                        || radice >= numero || livelli < 0 || numeroVincitori < 0 || byteNomi < 0
+                        || canale.size() != dimensione(numero, livelli, numeroVincitori) + byteNomi) {
+                    throw new IOException("Istantanea non valida: " + nomeFile);
+                }
+                return new Istantanea(canale, nomeFile, numero, radice, livelli, numeroVincitori,
+                        intestazione.get(6) != 0, byteNomi);
+            }
+        }
+
+        /* Salva un albero compatto già visitato con esito positivo. I vincitori di ogni livello vengono ordinati per
+        nome una volta sola, qui; i nomi si scrivono per primi in fondo al file (la loro posizione dipende solo dal
+        numero di nodi e di vincitori), così le posizioni in byte sono note quando si scrive inizioNome. */
+        static void salva(AlberoCompatto albero, String nomeFile) throws IOException {
+            int n = albero.nomi.length;
+            Vincitori migliori = Vincitori.di(albero.livelloVisita, albero.discendenti);
+            int numeroVincitori = 0;
+            for (int l = 0; l < migliori.livelli; l++) {
+                numeroVincitori += migliori.pari[l];
+            }
+            int[] inizioNome = new int[n + 1];
+            try (FileChannel canale = FileChannel.open(Paths.get(nomeFile), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Scrittura scrittura = new Scrittura(canale, dimensione(n, migliori.livelli, numeroVincitori));
+                long byteNomi = 0;
+                for (int v = 0; v < n; v++) {
+                    byte[] nome = albero.nomi[v].getBytes(StandardCharsets.UTF_8);
+                    byteNomi += nome.length;
+                    if (byteNomi > Integer.MAX_VALUE) {
+                        throw new IOException("I nomi occupano piu' di 2 GB, troppo per un'istantanea");
+                    }
+                    scrittura.nome(nome);
+                    inizioNome[v + 1] = (int) byteNomi;
+                }
+                scrittura.svuota();
+
+                scrittura = new Scrittura(canale, 0);
+                int[] intestazione = {MAGICO, VERSIONE, n, albero.radice, migliori.livelli, numeroVincitori,
+                        albero.genitoriMultipli ? 1 : 0, (int) byteNomi};
+                scrittura.interi(intestazione, intestazione.length);
+                scrittura.interi(inizioNome, n + 1);
+                scrittura.interi(albero.genitore, n);
+                scrittura.interi(albero.livelloVisita, n);
+                scrittura.interi(albero.discendenti, n);
+                scrittura.interi(migliori.massimo, migliori.livelli);
+                int inizio = 0;
+                for (int l = 0; l <= migliori.livelli; l++) {
+                    scrittura.intero(inizio);
+                    if (l < migliori.livelli) {
+                        inizio += migliori.pari[l];
+                    }
+                }
+                for (int l = 0; l < migliori.livelli; l++) {
+                    Integer[] ordinati = new Integer[migliori.pari[l]];
+                    for (int i = 0; i < ordinati.length; i++) {
+                        ordinati[i] = migliori.nodi[l][i];
+                    }
+                    Arrays.sort(ordinati, (a, b) -> albero.nomi[a].compareTo(albero.nomi[b]));
+                    for (int v : ordinati) {
+                        scrittura.intero(v);
+                    }
+                }
+                scrittura.svuota();
+            }
+        }
+
+        // Restituisce il valore se sta fra minimo e massimo (compresi), altrimenti l'istantanea è danneggiata.
+        private int controlla(int valore, int minimo, int massimo) throws IOException {
+            if (valore < minimo || valore > massimo) {
+                throw new IOException("Istantanea non valida: " + nomeFile);
+            }
+            return valore;
+        }
+
+        String nome(int id) throws IOException {
+            controlla(id, 0, numero - 1);
+            int inizio = controlla(inizioNome.get(id), 0, nomi.limit());
+            int fine = controlla(inizioNome.get(id + 1), inizio, nomi.limit());
+            byte[] nome = new byte[fine - inizio];
+            nomi.get(inizio, nome);
+            return new String(nome, StandardCharsets.UTF_8);
+        }
+
+        int genitore(int id) throws IOException {
+            return controlla(genitore.get(id), -1, numero - 1);
+        }
+
+        int livello(int id) throws IOException {
+            return controlla(livello.get(id), -1, numero - 1);
+        }
+
+        int discendenti(int id) throws IOException {
+            return controlla(discendenti.get(id), 0, numero - 1);
+        }
+
+        /* Stessa uscita di AlberoCompatto.stampa, letta dai vincitori già ordinati. */
+        void stampa(PrintStream uscita) throws IOException {
+            StringBuilder testo = new StringBuilder();
+            for (int l = 0; l < livelli; l++) {
+                int inizio = controlla(inizioVincitori.get(l), 0, vincitori.limit());
+                int fine = controlla(inizioVincitori.get(l + 1), inizio, vincitori.limit());
+                if (inizio == fine) {
+                    continue;
+                }
+                testo.setLength(0);
+                testo.append(l).append(": ");
+                for (int i = inizio; i < fine; i++) {
+                    if (i > inizio) {
+                        testo.append(", ");
+                    }
+                    testo.append(nome(vincitori.get(i)));
+                }
+                uscita.println(testo);
+            }
+        }
+
+        // Scrive in sequenza nel canale, a partire da una posizione, attraverso un buffer da 1 MB.
+        private static final class Scrittura {
+            private final FileChannel canale;
+            private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            private long posizione;
+
+            Scrittura(FileChannel canale, long posizione) {
+                this.canale = canale;
+                this.posizione = posizione;
+            }
+
+            void intero(int valore) throws IOException {
+                if (buffer.remaining() < Integer.BYTES) {
+                    svuota();
+                }
+                buffer.putInt(valore);
+            }
+
+            void interi(int[] valori, int numero) throws IOException {
+                for (int i = 0; i < numero; i++) {
+                    intero(valori[i]);
+                }
+            }
+
+            void nome(byte[] valori) throws IOException {
+                for (int i = 0; i < valori.length; ) {
+                    if (!buffer.hasRemaining()) {
+                        svuota();
+                    }
+                    int quanti = Math.min(buffer.remaining(), valori.length - i);
+                    buffer.put(valori, i, quanti);
+                    i += quanti;
+                }
+            }
+
+            void svuota() throws IOException {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    posizione += canale.write(buffer, posizione);
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    /* Tabella hash a indirizzamento aperto da nome a identificativo: gli slot contengono identificativo + 1 (0 vuol
+    dire vuoto) e il confronto avviene sui nomi già registrati, quindi ogni nome è memorizzato una sola volta e
+    non ci sono oggetti Integer. La tabella raddoppia quando è piena per metà. */
+    private static final class Dizionario {
+        private String[] nomi = new String[1024];
+        private int[] hash = new int[1024];
+        private int[] slot = new int[2048];
+        int numero;
+
+        int identificativo(String nome) {
+            int h = nome.hashCode() * 0x9E3779B9;
+            int maschera = slot.length - 1;
+            int i = h & maschera;
+            while (slot[i] != 0) {
+                int id = slot[i] - 1;
+                if (hash[id] == h && nomi[id].equals(nome)) {
+                    return id;
+                }
+                i = (i + 1) & maschera;
+            }
+            if (numero == nomi.length) {
+                nomi = Arrays.copyOf(nomi, 2 * numero);
+                hash = Arrays.copyOf(hash, 2 * numero);
+            }
+            nomi[numero] = nome;
+            hash[numero] = h;
+            slot[i] = ++numero;
+            if (2 * numero > slot.length) {
+                ridimensiona();
+            }
+            return numero - 1;
+        }
+
+        private void ridimensiona() {
+            slot = new int[2 * slot.length];
+            int maschera = slot.length - 1;
+            for (int id = 0; id < numero; id++) {
+                int i = hash[id] & maschera;
+                while (slot[i] != 0) {
+                    i = (i + 1) & maschera;
+                }
+                slot[i] = id + 1;
+            }
+        }
+
+        // Identificativo del nome, oppure -1 se il nome non è registrato.
+        int trova(String nome) {
+            int h = nome.hashCode() * 0x9E3779B9;
+            int maschera = slot.length - 1;
+            for (int i = h & maschera; slot[i] != 0; i = (i + 1) & maschera) {
+                int id = slot[i] - 1;
+                if (hash[id] == h && nomi[id].equals(nome)) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+
+        String nome(int id) {
+            return nomi[id];
+        }
+
+        String[] nomi() {
+            return Arrays.copyOf(nomi, numero);
+        }
+    }
+
+    private static final class Opzioni {
+        static final String USO = "Esempio: java Esercizio1 <nome_file> [opzioni]\n"
+                + "  --compatto   usa la rappresentazione con identificativi interi e array (per alberi molto grandi)\n"
+                + "  --iterativo  visita l'albero senza ricorsione, anche per alberi molto profondi\n"
+                + "               (implica --compatto)\n"
+                + "  --thread <k> conta i discendenti dei sottoalberi in parallelo con k thread (implica --compatto)\n"
+                + "  --aggiunte <file>  dopo l'albero aggiunge uno alla volta gli archi del file\n"
+                + "               (- per lo standard input); una riga 'stampa' mostra il risultato corrente\n"
+                + "               (implica --compatto)\n"
+                + "  --salva-istantanea <file>  salva l'albero verificato, con livelli, discendenti e massimi,\n"
+                + "               in un file binario (implica --compatto)\n"
+                + "  --istantanea il file indicato e' un'istantanea salvata con --salva-istantanea\n"
+                + "               e viene mappato in memoria";
+
+        String nomeFile;
+        boolean compatto;
+        boolean iterativo;
+        int thread = 1;
+        String aggiunte;
+        String salvaIstantanea;
+        boolean istantanea;
+
+        static Opzioni leggi(String[] args) {
+            if (args.length < 1) {
+                throw new IllegalArgumentException("Parametro mancante");
+            }
+            Opzioni opzioni = new Opzioni();
+            opzioni.nomeFile = args[0];
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--compatto":
+                        opzioni.compatto = true;
+                        break;
+                    case "--iterativo":
+                        opzioni.iterativo = true;
+                        opzioni.compatto = true;
+                        break;
+                    case "--thread":
+                        opzioni.thread = intero(args, ++i, 1);
+                        opzioni.compatto = true;
+                        break;
+                    case "--aggiunte":
+                        opzioni.aggiunte = valore(args, ++i);
+                        opzioni.compatto = true;
+                        break;
+                    case "--salva-istantanea":
+                        opzioni.salvaIstantanea = valore(args, ++i);
+                        opzioni.compatto = true;
+                        break;
+                    case "--istantanea":
+                        opzioni.istantanea = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Opzione non valida: " + args[i]);
+                }
+            }
+            if (opzioni.istantanea && opzioni.salvaIstantanea != null) {
+                throw new IllegalArgumentException("--istantanea e --salva-istantanea non si possono usare insieme");
+            }
+            return opzioni;
+        }
+
+        static String valore(String[] args, int i) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException("Valore mancante per l'opzione " + args[i - 1]);
+            }
+            return args[i];
+        }
+
+        static int intero(String[] args, int i, int minimo) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException("Valore mancante per l'opzione " + args[i - 1]);
+            }
+            String valore = args[i];
+            try {
+                int risultato = Integer.parseInt(valore);
+                if (risultato >= minimo) {
+                    return risultato;
+                }
+            } catch (NumberFormatException e) {
+                // segnalato sotto insieme ai valori fuori intervallo
+            }
+            throw new IllegalArgumentException("Valore non valido per l'opzione " + args[i - 1] + ": " + valore);
+        }
+    }
+
+    /* Esecuzione con la rappresentazione compatta: stessi controlli e stessi messaggi della versione con le mappe. */
+    private static void eseguiCompatto(Opzioni opzioni) {
+        AlberoCompatto compatto;
+        try {
+            compatto = AlberoCompatto.leggi(opzioni.nomeFile);
+        } catch (IOException e) {
+            System.out.println("Errore nella lettura del file: " + e.getMessage());
+            return;
+        }
+        if (compatto == null) {
+            System.out.println("I dati inseriti non rappresentano un albero singolo");
+            return;
+        }
+        boolean valido;
+        if (opzioni.thread > 1) {
+            ForkJoinPool pool = new ForkJoinPool(opzioni.thread);
+            try {
+                valido = compatto.visitaParallela(pool);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            valido = opzioni.iterativo ? compatto.visitaIterativa() : compatto.visita();
+        }
+        if (!valido) {
+            System.out.println("I dati inseriti non rappresentano un albero valido");
+            return;
+        }
+        if (opzioni.salvaIstantanea != null) {
+            try {
+                Istantanea.salva(compatto, opzioni.salvaIstantanea);
+            } catch (IOException e) {
+                System.out.println("Errore nella scrittura dell'istantanea: " + e.getMessage());
+                return;
+            }
+        }
+        // Con alberi profondi le righe sono milioni: si evita lo svuotamento di System.out a ogni println.
+        PrintStream uscita = new PrintStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        if (opzioni.aggiunte == null) {
+            compatto.stampa(uscita);
+        } else if (compatto.genitoriMultipli) {
+            // La visita lo accetta, ma l'albero incrementale tiene un solo genitore per nodo.
+            uscita.println("La modalita' incrementale (--aggiunte) richiede un solo genitore per nodo: "
+                    + "un nodo del file ne ha piu' di uno");
+        } else {
+            AlberoIncrementale incrementale = AlberoIncrementale.da(compatto);
+            try {
+                aggiungi(incrementale, opzioni.aggiunte, uscita);
+            } catch (IOException e) {
+                uscita.println("Errore nella lettura del file: " + e.getMessage());
+            }
+        }
+        uscita.flush();
+    }
+
+    /* Esecuzione a partire da un'istantanea: l'albero è già stato verificato quando è stata salvata, quindi basta
+    mapparla e stampare i vincitori; con --aggiunte l'istantanea viene copiata in un AlberoIncrementale. */
+    private static void eseguiIstantanea(Opzioni opzioni) {
+        Istantanea istantanea;
+        try {
+            istantanea = Istantanea.apri(opzioni.nomeFile);
+        } catch (IOException e) {
+            System.out.println("Errore nella lettura del file: " + e.getMessage());
+            return;
+        }
+        PrintStream uscita = new PrintStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        if (opzioni.aggiunte == null) {
+            try {
+                istantanea.stampa(uscita);
+            } catch (IOException e) {
+                uscita.println("Errore nella lettura del file: " + e.getMessage());
+            }
+        } else if (istantanea.genitoriMultipli) {
+            uscita.println("La modalita' incrementale (--aggiunte) richiede un solo genitore per nodo: "
+                    + "un nodo del file ne ha piu' di uno");
+        } else {
+            try {
+                aggiungi(AlberoIncrementale.da(istantanea), opzioni.aggiunte, uscita);
+            } catch (IOException e) {
+                uscita.println("Errore nella lettura del file: " + e.getMessage());
+            }
+        }
+        uscita.flush();
+    }
+
+    /* Applica all'albero incrementale gli archi del file nell'ordine in cui arrivano (le righe non valide vengono
+    segnalate e ignorate), stampa il risultato a ogni riga "stampa" e alla fine. */
+    private static void aggiungi(AlberoIncrementale albero, String nomeFile, PrintStream uscita) throws IOException {
+        Reader sorgente = nomeFile.equals("-") ? new InputStreamReader(System.in) : new FileReader(nomeFile);
+        try (BufferedReader ingresso = new BufferedReader(sorgente, 1 << 16)) {
+            String riga;
+            while ((riga = ingresso.readLine()) != null) {
+                riga = riga.trim();
+                if (riga.isEmpty()) {
+                    continue;
+                }
+                if (riga.equals("stampa")) {
+                    stampaIncrementale(albero, uscita);
+                    uscita.flush();
+                    continue;
+                }
+                int virgola = riga.indexOf(',');
+                if (virgola < 0) {
+                    uscita.println("Riga ignorata: " + riga);
+                    continue;
+                }
+                int fine = riga.indexOf(',', virgola + 1);
+                try {
+                    albero.aggiungiArco(riga.substring(0, virgola).trim(),
+                            riga.substring(virgola + 1, fine < 0 ? riga.length() : fine).trim());
+                } catch (IllegalArgumentException e) {
+                    uscita.println("Riga ignorata: " + riga + " (" + e.getMessage() + ")");
+                }
+            }
+        }
+        stampaIncrementale(albero, uscita);
+    }
+
+    private static void stampaIncrementale(AlberoIncrementale albero, PrintStream uscita) {
+        if (albero.singolo()) {
+            albero.stampa(uscita);
+        } else {
+            uscita.println("I dati inseriti non rappresentano un albero singolo");
+        }
+    }
+
+    /* Il main richiama i metodi implementati, tramite delle stampe notifica eventuali errori.
+    Con --compatto l'albero viene costruito e visitato nella rappresentazione AlberoCompatto, con --iterativo la
+    visita usa uno stack esplicito invece della ricorsione; con --aggiunte l'albero visitato diventa un
+    AlberoIncrementale a cui si aggiungono gli archi del secondo file. Con --salva-istantanea l'albero verificato viene
+    anche salvato in forma binaria e con --istantanea si riparte da un file salvato così. */
     public static void main(String[] args) {
         Locale.setDefault(Locale.US);
 
-        if (args.length != 1) {
-            System.out.println("Parametro mancante\nEsempio: java Esercizio1 <nome_file>");
+        Opzioni opzioni;
+        try {
+            opzioni = Opzioni.leggi(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage() + "\n" + Opzioni.USO);
             return;
         }
 
-	    if (!costruisciAlbero(args[0])) {
+        if (opzioni.istantanea) {
+            eseguiIstantanea(opzioni);
+            return;
+        }
+        if (opzioni.compatto) {
+            eseguiCompatto(opzioni);
+            return;
+        }
+
+	    if (!costruisciAlbero(opzioni.nomeFile)) {
 	        return;
         }
 
@@ -174,9 +1406,7 @@ public class Esercizio1 {
             System.out.println("I dati inseriti non rappresentano un albero singolo");
             return;
         }
-        livelli.put(radice, 0);
-
-        if(!dfs(radice)) {
+        if(!visita(radice)) {
             System.out.println("I dati inseriti non rappresentano un albero valido");
             return;
         }
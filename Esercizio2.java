@@ -13,25 +13,57 @@ Caso generale:
     agli ultimi len caratteri del prefisso.
 
 Costo computazionale:
-- L'algoritmo utilizza due cicli annidati: il ciclo esterno itera su ogni posizione della sequenza (da 1 a n)
-  per un costo di O(n); il ciclo interno itera, invece, sui k codici validi (k=8) svolgendo i confronti sulle varie
-  sotto stringhe di lunghezza m (m<=4), per un costo di O(m * k).
-Il costo totale è quindi O(n*k*m), dato che m e k sono costanti il costo complessivo sarà O(n).
+- La tabella dei codici (quella della consegna oppure una letta da file con --codici) viene compilata in un automa
+  di Aho-Corasick sull'alfabeto {0, 1}: la costruzione del trie e dei collegamenti di fallimento costa O(S), con S
+  somma delle lunghezze dei codici.
+- L'algoritmo utilizza un solo ciclo sulla sequenza (da 1 a n): per ogni carattere l'automa esegue una transizione
+  di costo O(1) e raggiunge lo stato che rappresenta il più lungo suffisso del prefisso che è anche prefisso di un
+  codice; lo stato conosce già le lunghezze di tutti i codici che terminano in quella posizione, per cui il lavoro
+  per carattere è O(1 + u), dove u è il numero di codici che terminano lì (al massimo il numero di lunghezze
+  distinte dei codici), e non dipende dal numero di codici della tabella né richiede confronti fra stringhe.
+Il costo totale è quindi O(S + n*u); con la tabella della consegna u <= 4 e il costo complessivo sarà O(n).
+- Il numero di decodifiche cresce esponenzialmente con n, quindi l'aritmetica si sceglie con --aritmetica: int
+  (quella originale, che oltre 2^31 - 1 restituisce valori sbagliati), long con controllo dell'overflow
+  (predefinita; l'errore si segnala solo se è il risultato finale a superare 2^63 - 1), long saturata, modulo
+  un intero p e esatta. Le prime quattro hanno costo O(1) per somma; quella esatta lavora su numeri di O(n) bit,
+  quindi ogni somma costa O(n / 60) e il totale è O(n^2 / 60) operazioni su long, senza allocazioni durante il
+  ciclo.
+- Con --thread k (k > 1, aritmetica modulare o esatta) la ricorrenza viene vista come prodotto di matrici di
+  trasferimento L x L (L = lunghezza massima dei codici) dei blocchi della sequenza: le matrici dei blocchi costano
+  in tutto O(L * n * u) e si dividono fra i k thread, il prodotto si combina con una riduzione ad albero. In
+  aritmetica esatta i prodotti fra numeri grandi usano la moltiplicazione sottoquadratica di BigInteger, quindi il
+  costo scende a O(L^3 M(n) log n), dove M(n) è il costo del prodotto di due numeri di O(n) bit.
+- Con --batch ogni riga è una sequenza indipendente: il costo è la somma di quello delle righe, diviso fra i thread,
+  più la compilazione dell'automa, eseguita una sola volta.
 
 Strutture dati utilizzate:
-Sono stati utilizzati due array, uno per memorizzare i codici e uno per le possibili combinazioni, dove il costo di
-accesso a un elemento è O(1):
-  - Per i codici si è scelto di utilizzare un array per via del numero ridotto e costante di codici.
+Sono stati utilizzati degli array, dove il costo di accesso a un elemento è O(1):
+  - L'automa è memorizzato in array di interi: due transizioni per stato (una per carattere) e, per ogni stato,
+    l'elenco delle lunghezze dei codici riconosciuti, contiguo in un unico array condiviso.
+  - La sequenza letta da file è memorizzata in forma compatta, un bit per carattere in un array di long
+    (SequenzaBinaria); con codici lunghi al più 16 caratteri, al posto dell'automa si usa una tabella indicizzata
+    dagli ultimi L bit letti, che in una sola lettura dà le lunghezze di tutti i codici che terminano lì.
   - Per le combinazioni è stato utilizzato un array perchè consente di memorizzare i risultati parziali in ordine e
     di recuperarli facilmente, inoltre anche in questo caso non c'è bisogno di variare la dimensione della struttura.
+    Con le aritmetiche selezionabili l'array diventa un buffer circolare che contiene solo le ultime combinazioni
+    (la ricorrenza non guarda più indietro della lunghezza massima dei codici); nell'aritmetica esatta ogni
+    combinazione è un numero in base 2^60 e tutte stanno in un unico array di long.
 */
 
 import java.util.*;
 import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 public class Esercizio2 {
 
-    private static final String[] codici = {
+    static final String[] codici = {
             "0",
             "00",
             "001",
@@ -42,49 +74,1160 @@ public class Esercizio2 {
             "0001"
     };
 
+    /* Automa di Aho-Corasick per una tabella di codici binari. Lo stato 0 è la radice (stringa vuota); ogni altro
+    stato corrisponde a un prefisso di almeno un codice. transizioni[2 * stato + bit] è lo stato raggiunto leggendo
+    il carattere bit: se il prefisso esteso non esiste nel trie, la transizione segue già i collegamenti di
+    fallimento, quindi durante la lettura non si torna mai indietro. Le lunghezze dei codici che terminano nello
+    stato (compresi quelli che sono suffissi del suo prefisso) stanno in
+    lunghezze[inizio[stato] .. inizio[stato + 1]). */
+    static final class Automa {
+        final int[] transizioni;
+        final int[] inizio;
+        final int[] lunghezze;
+        final int lunghezzaMassima;
+        // Numero massimo di codici che terminano in uno stesso stato.
+        final int massimoUscite;
+        /* Con codici lunghi al più LUNGHEZZA_FINESTRE, finestre[w] indica quali codici terminano dopo gli ultimi
+        lunghezzaMassima caratteri w (letti come intero binario, il più recente nel bit meno significativo): il bit
+        len - 1 vale 1 se un codice di lunghezza len coincide con gli ultimi len bit di w. È null per codici più
+        lunghi. */
+        final int[] finestre;
+
+        private Automa(int[] transizioni, int[] inizio, int[] lunghezze, int lunghezzaMassima) {
+            this.transizioni = transizioni;
+            this.inizio = inizio;
+            this.lunghezze = lunghezze;
+            this.lunghezzaMassima = lunghezzaMassima;
+            int massimo = 0;
+            for (int stato = 0; stato + 1 < inizio.length; stato++) {
+                massimo = Math.max(massimo, inizio[stato + 1] - inizio[stato]);
+            }
+            massimoUscite = massimo;
+            finestre = lunghezzaMassima <= LUNGHEZZA_FINESTRE ? costruisciFinestre() : null;
+        }
+
+        static final int LUNGHEZZA_FINESTRE = 16;
+
+        // Per ogni finestra legge i suoi bit dal più vecchio partendo dalla radice: lo stato raggiunto è lo stesso
+        // della lettura dell'intera sequenza, perché nessuno stato rappresenta un prefisso più lungo della finestra.
+        private int[] costruisciFinestre() {
+            int[] tabella = new int[1 << lunghezzaMassima];
+            for (int finestra = 0; finestra < tabella.length; finestra++) {
+                int stato = 0;
+                for (int b = lunghezzaMassima - 1; b >= 0; b--) {
+                    stato = transizioni[2 * stato + ((finestra >>> b) & 1)];
+                }
+                int lunghezzeFinestra = 0;
+                for (int k = inizio[stato]; k < inizio[stato + 1]; k++) {
+                    lunghezzeFinestra |= 1 << (lunghezze[k] - 1);
+                }
+                tabella[finestra] = lunghezzeFinestra;
+            }
+            return tabella;
+        }
+
+        /* Costruisce il trie dei codici e poi, con una visita in ampiezza, i collegamenti di fallimento: il
+        fallimento di uno stato è lo stato del suo suffisso proprio più lungo presente nel trie e ne eredita i codici
+        riconosciuti. Segnala codici vuoti, non binari o ripetuti. */
+        static Automa compila(Collection<String> tabella) {
+            if (tabella.isEmpty()) {
+                throw new IllegalArgumentException("Nessun codice nella tabella");
+            }
+            int capacita = 1;
+            for (String codice : tabella) {
+                capacita += codice.length();
+            }
+            int[] figli = new int[2 * capacita];
+            Arrays.fill(figli, -1);
+            int[] terminale = new int[capacita];
+            int numeroStati = 1;
+            int lunghezzaMassima = 0;
+
+            for (String codice : tabella) {
+                if (codice.isEmpty()) {
+                    throw new IllegalArgumentException("Codice vuoto nella tabella");
+                }
+                int stato = 0;
+                for (int i = 0; i < codice.length(); i++) {
+                    int bit = codice.charAt(i) - '0';
+                    if (bit != 0 && bit != 1) {
+                        throw new IllegalArgumentException("Codice non binario: " + codice);
+                    }
+                    if (figli[2 * stato + bit] == -1) {
+                        figli[2 * stato + bit] = numeroStati++;
+                    }
+                    stato = figli[2 * stato + bit];
+                }
+                if (terminale[stato] != 0) {
+                    throw new IllegalArgumentException("Codice duplicato: " + codice);
+                }
+                terminale[stato] = codice.length();
+                lunghezzaMassima = Math.max(lunghezzaMassima, codice.length());
+            }
+
+            int[] transizioni = new int[2 * numeroStati];
+            int[] fallimento = new int[numeroStati];
+            int[] ordine = new int[numeroStati];
+            int testa = 0;
+            int coda = 0;
+            for (int bit = 0; bit < 2; bit++) {
+                int figlio = figli[bit];
+                transizioni[bit] = figlio == -1 ? 0 : figlio;
+                if (figlio != -1) {
+                    ordine[coda++] = figlio;
+                }
+            }
+            while (testa < coda) {
+                int stato = ordine[testa++];
+                for (int bit = 0; bit < 2; bit++) {
+                    int figlio = figli[2 * stato + bit];
+                    if (figlio == -1) {
+                        transizioni[2 * stato + bit] = transizioni[2 * fallimento[stato] + bit];
+                    } else {
+                        transizioni[2 * stato + bit] = figlio;
+                        fallimento[figlio] = transizioni[2 * fallimento[stato] + bit];
+                        ordine[coda++] = figlio;
+                    }
+                }
+            }
+
+            // Le lunghezze riconosciute da uno stato sono la sua (se è terminale) più quelle del suo fallimento,
+            // già calcolate perché il fallimento è più vicino alla radice nell'ordine della visita.
+            int[] inizio = new int[numeroStati + 1];
+            int[] numero = new int[numeroStati];
+            for (int i = 0; i < coda; i++) {
+                int stato = ordine[i];
+                numero[stato] = numero[fallimento[stato]] + (terminale[stato] != 0 ? 1 : 0);
+            }
+            for (int stato = 0; stato < numeroStati; stato++) {
+                inizio[stato + 1] = inizio[stato] + numero[stato];
+            }
+            int[] lunghezze = new int[inizio[numeroStati]];
+            for (int i = 0; i < coda; i++) {
+                int stato = ordine[i];
+                int posizione = inizio[stato];
+                if (terminale[stato] != 0) {
+                    lunghezze[posizione++] = terminale[stato];
+                }
+                int ereditate = fallimento[stato];
+                System.arraycopy(lunghezze, inizio[ereditate], lunghezze, posizione, numero[ereditate]);
+            }
+            return new Automa(transizioni, inizio, lunghezze, lunghezzaMassima);
+        }
+
+        /* Legge una tabella di codici da file: i codici sono separati da spazi, virgole o a capo; le righe che
+        iniziano con # sono commenti. */
+        static Automa leggi(String nomeFile) throws IOException {
+            List<String> tabella = new ArrayList<>();
+            try (BufferedReader ingresso = new BufferedReader(new FileReader(nomeFile))) {
+                String riga;
+                while ((riga = ingresso.readLine()) != null) {
+                    riga = riga.trim();
+                    if (riga.isEmpty() || riga.startsWith("#")) {
+                        continue;
+                    }
+                    for (String codice : riga.split("[\\s,]+")) {
+                        if (!codice.isEmpty()) {
+                            tabella.add(codice);
+                        }
+                    }
+                }
+            }
+            return compila(tabella);
+        }
+
+        // Stato raggiunto leggendo il carattere c; un carattere diverso da 0 e 1 non appartiene ad alcun codice.
+        int transizione(int stato, char c) {
+            if (c == '0' || c == '1') {
+                return transizioni[2 * stato + (c - '0')];
+            }
+            return 0;
+        }
+    }
+
+    static final Automa automaConsegna = Automa.compila(Arrays.asList(codici));
+
+    /* In questo metodo viene implementato l'algoritmo tramite programmazione dinamica con i codici della consegna. */
+    static int decodifichePossibili(String sequenza) {
+        return decodifichePossibili(sequenza, automaConsegna);
+    }
+
     /* In questo metodo viene implementato l'algoritmo tramite programmazione dinamica.
     Costruisce la soluzione a partire dal caso più semplice (caso base) fino a valutare tutte le sotto stringhe successive.
     L'array delle combinazioni ha lunghezza n+1 per considerare anche il caso base.
+    Dopo il carattere i lo stato dell'automa indica quali codici terminano esattamente in quella posizione, e per
+    ciascuno di lunghezza len si somma combinazioni[i - len], senza estrarre sotto stringhe.
     L'ultimo elemento dell'array combinazioni, alla fine del ciclo esterno, rappresenta il numero di combinazioni possibili
     perchè accumula tutte le soluzioni parziali, fino alla sequenza completa.*/
-    private static int decodifichePossibili(String sequenza) {
+    static int decodifichePossibili(String sequenza, Automa automa) {
         int lunghezza = sequenza.length();
         int[] combinazioni = new int[lunghezza + 1];
         combinazioni[0] = 1;
+        final int[] inizio = automa.inizio;
+        final int[] lunghezze = automa.lunghezze;
 
+        int stato = 0;
         for (int i = 1; i <= lunghezza; i++) {
-            for (String codice : codici) {
-                int len = codice.length();
-                if (i >= len && sequenza.substring(i - len, i).equals(codice)) {
-                    combinazioni[i] += combinazioni[i - len];
-                }
+            stato = automa.transizione(stato, sequenza.charAt(i - 1));
+            int somma = 0;
+            for (int k = inizio[stato]; k < inizio[stato + 1]; k++) {
+                somma += combinazioni[i - lunghezze[k]];
             }
+            combinazioni[i] = somma;
         }
 
         return combinazioni[lunghezza];
     }
 
-    /* Nel main viene letto il file che contiene la sequenza da analizzare, la lettura non
-    è stata fatta con un while perchè si assume che il file in input contenga una sola riga.
-    Stampa l'output del metodo decodifichePossibili.*/
+    /* Aritmetica con cui si contano le decodifiche. Le combinazioni vivono in un buffer circolare di posti
+    (tanti quanti servono per guardare indietro della lunghezza massima dei codici): il contatore conosce solo i
+    posti e l'operazione della ricorrenza, cioè scrivere in un posto la somma di altri posti. */
+    abstract static class Contatore {
+        // Alloca i posti, tutti a zero.
+        abstract void prepara(int posti);
+
+        // Caso base: la stringa vuota ha una decodifica.
+        abstract void uno(int posto);
+
+        // Scrive in destinazione la somma dei primi numero posti di sorgenti (destinazione non è fra questi).
+        abstract void somma(int destinazione, int[] sorgenti, int numero);
+
+        abstract String valore(int posto);
+
+        // Valore del posto come numero, usato dal calcolo con le matrici di trasferimento.
+        abstract BigInteger grande(int posto);
+    }
+
+    // Aritmetica a 32 bit del programma originale: in caso di overflow il risultato si riduce modulo 2^32.
+    private static final class ContatoreInt extends Contatore {
+        private int[] valori;
+
+        void prepara(int posti) {
+            valori = new int[posti];
+        }
+
+        void uno(int posto) {
+            valori[posto] = 1;
+        }
+
+        void somma(int destinazione, int[] sorgenti, int numero) {
+            int somma = 0;
+            for (int k = 0; k < numero; k++) {
+                somma += valori[sorgenti[k]];
+            }
+            valori[destinazione] = somma;
+        }
+
+        String valore(int posto) {
+            return Integer.toString(valori[posto]);
+        }
+
+        BigInteger grande(int posto) {
+            return BigInteger.valueOf(valori[posto]);
+        }
+    }
+
+    /* Aritmetica a 64 bit che segnala l'overflow con ArithmeticException invece di restituire un valore sbagliato.
+    Un posto che supera Long.MAX_VALUE vale OVERFLOW e lo trasmette alle somme in cui compare, ma l'eccezione arriva
+    solo se si legge un posto in overflow: un prefisso enorme che non contribuisce al risultato finale (ad esempio
+    perché la sequenza poi non si decodifica) non impedisce di stampare il risultato corretto. */
+    private static final class ContatoreLong extends Contatore {
+        // I conteggi non sono mai negativi, quindi -1 può indicare l'overflow.
+        private static final long OVERFLOW = -1;
+
+        private long[] valori;
+
+        void prepara(int posti) {
+            valori = new long[posti];
+        }
+
+        void uno(int posto) {
+            valori[posto] = 1;
+        }
+
+        void somma(int destinazione, int[] sorgenti, int numero) {
+            long somma = 0;
+            for (int k = 0; k < numero; k++) {
+                long valore = valori[sorgenti[k]];
+                if (valore == OVERFLOW || somma > Long.MAX_VALUE - valore) {
+                    somma = OVERFLOW;
+                    break;
+                }
+                somma += valore;
+            }
+            valori[destinazione] = somma;
+        }
+
+        private long letto(int posto) {
+            long valore = valori[posto];
+            if (valore == OVERFLOW) {
+                throw new ArithmeticException("long overflow");
+            }
+            return valore;
+        }
+
+        String valore(int posto) {
+            return Long.toString(letto(posto));
+        }
+
+        BigInteger grande(int posto) {
+            return BigInteger.valueOf(letto(posto));
+        }
+    }
+
+    /* Aritmetica a 64 bit saturata: una somma che supererebbe Long.MAX_VALUE resta a Long.MAX_VALUE, che quindi
+    va letto come "almeno Long.MAX_VALUE". */
+    private static final class ContatoreSaturato extends Contatore {
+        private long[] valori;
+
+        void prepara(int posti) {
+            valori = new long[posti];
+        }
+
+        void uno(int posto) {
+            valori[posto] = 1;
+        }
+
+        void somma(int destinazione, int[] sorgenti, int numero) {
+            long somma = 0;
+            for (int k = 0; k < numero; k++) {
+                long valore = valori[sorgenti[k]];
+                somma = somma > Long.MAX_VALUE - valore ? Long.MAX_VALUE : somma + valore;
+            }
+            valori[destinazione] = somma;
+        }
+
+        String valore(int posto) {
+            long valore = valori[posto];
+            return valore == Long.MAX_VALUE ? ">= " + valore : Long.toString(valore);
+        }
+
+        BigInteger grande(int posto) {
+            return BigInteger.valueOf(valori[posto]);
+        }
+    }
+
+    /* Aritmetica modulo m, con m < 2^62: i valori restano in [0, m) e la somma di due valori non supera 2^63, quindi
+    basta una sottrazione condizionale per ridurla. */
+    private static final class ContatoreModulare extends Contatore {
+        private final long modulo;
+        private long[] valori;
+
+        ContatoreModulare(long modulo) {
+            this.modulo = modulo;
+        }
+
+        void prepara(int posti) {
+            valori = new long[posti];
+        }
+
+        void uno(int posto) {
+            valori[posto] = 1 % modulo;
+        }
+
+        void somma(int destinazione, int[] sorgenti, int numero) {
+            long somma = 0;
+            for (int k = 0; k < numero; k++) {
+                somma += valori[sorgenti[k]];
+                if (somma >= modulo) {
+                    somma -= modulo;
+                }
+            }
+            valori[destinazione] = somma;
+        }
+
+        String valore(int posto) {
+            return Long.toString(valori[posto]);
+        }
+
+        BigInteger grande(int posto) {
+            return BigInteger.valueOf(valori[posto]);
+        }
+    }
+
+    /* Aritmetica esatta su numeri naturali di lunghezza arbitraria. Ogni posto è un numero in base 2^60 (cifre
+    meno significative per prime) memorizzato in un unico array di long, con capacità uguale per tutti i posti che
+    raddoppia quando serve: a regime la somma non alloca nulla, a differenza di BigInteger che creerebbe un nuovo
+    oggetto della dimensione del risultato a ogni carattere. Con cifre di 60 bit si possono sommare in colonna
+    fino a 7 cifre più il riporto senza overflow, quindi la somma di ogni carattere è una sola passata sulle cifre. */
+    private static final class ContatoreEsatto extends Contatore {
+        private static final int BIT = 60;
+        private static final long MASCHERA = (1L << BIT) - 1;
+        private static final int ADDENDI = 7;
+
+        private long[] cifre;
+        private int[] lunghezza;
+        private int[] basi = new int[ADDENDI];
+        private int capacita;
+        private int posti;
+
+        void prepara(int posti) {
+            this.posti = posti;
+            capacita = 4;
+            cifre = new long[posti * capacita];
+            lunghezza = new int[posti];
+        }
+
+        void uno(int posto) {
+            cifre[posto * capacita] = 1;
+            lunghezza[posto] = 1;
+        }
+
+        void somma(int destinazione, int[] sorgenti, int numero) {
+            int massima = 0;
+            for (int k = 0; k < numero; k++) {
+                massima = Math.max(massima, lunghezza[sorgenti[k]]);
+            }
+            if (massima + 2 > capacita) {
+                cresci(2 * (massima + 2));
+            }
+            if (basi.length < numero + 1) {
+                basi = new int[numero + 1];
+            }
+            int base = destinazione * capacita;
+            int vecchia = lunghezza[destinazione];
+            int nuova = 0;
+            if (massima > 0) {
+                // I primi (al più 7) addendi vengono scritti nella destinazione, i successivi le si sommano a gruppi;
+                // il totale non supera numero * 2^(60 * massima), quindi sta sempre in massima + 1 cifre.
+                int k = 0;
+                int addendi = 0;
+                while (k < numero) {
+                    while (addendi < ADDENDI && k < numero) {
+                        basi[addendi++] = sorgenti[k++] * capacita;
+                    }
+                    nuova = sommaInColonna(base, addendi, Math.max(massima, nuova));
+                    basi[0] = base;
+                    addendi = 1;
+                }
+            }
+            if (vecchia > nuova) {
+                Arrays.fill(cifre, base + nuova, base + vecchia, 0);
+            }
+            lunghezza[destinazione] = nuova;
+        }
+
+        /* Scrive a partire da base la somma dei numeri che iniziano in basi[0 .. addendi), propagando i riporti in
+        un'unica passata: le cifre oltre la lunghezza di ogni numero sono zero, quindi tutti si leggono fino alla
+        cifra massima. Restituisce la lunghezza del risultato. */
+        private int sommaInColonna(int base, int addendi, int massima) {
+            final long[] cifre = this.cifre;
+            long riporto = 0;
+            if (addendi == 1) {
+                System.arraycopy(cifre, basi[0], cifre, base, massima);
+            } else if (addendi == 2) {
+                int a = basi[0];
+                int b = basi[1];
+                for (int j = 0; j < massima; j++) {
+                    long valore = cifre[a + j] + cifre[b + j] + riporto;
+                    cifre[base + j] = valore & MASCHERA;
+                    riporto = valore >>> BIT;
+                }
+            } else {
+                for (int j = 0; j < massima; j++) {
+                    long valore = riporto;
+                    for (int k = 0; k < addendi; k++) {
+                        valore += cifre[basi[k] + j];
+                    }
+                    cifre[base + j] = valore & MASCHERA;
+                    riporto = valore >>> BIT;
+                }
+            }
+            cifre[base + massima] = riporto;
+            int lunghezza = massima + 1;
+            while (lunghezza > 0 && cifre[base + lunghezza - 1] == 0) {
+                lunghezza--;
+            }
+            return lunghezza;
+        }
+
+        private void cresci(int nuovaCapacita) {
+            long[] nuove = new long[posti * nuovaCapacita];
+            for (int posto = 0; posto < posti; posto++) {
+                System.arraycopy(cifre, posto * capacita, nuove, posto * nuovaCapacita, lunghezza[posto]);
+            }
+            cifre = nuove;
+            capacita = nuovaCapacita;
+        }
+
+        // Converte il numero in BigInteger scrivendone i byte, dal meno significativo, a gruppi di 30 bit.
+        BigInteger grande(int posto) {
+            int base = posto * capacita;
+            int numeroCifre = lunghezza[posto];
+            byte[] byteNumero = new byte[(numeroCifre * BIT + 7) / 8];
+            int scritti = 0;
+            long accumulatore = 0;
+            int bitAccumulati = 0;
+            for (int j = 0; j < numeroCifre; j++) {
+                for (int meta = 0; meta < 2; meta++) {
+                    accumulatore |= ((cifre[base + j] >>> (30 * meta)) & ((1L << 30) - 1)) << bitAccumulati;
+                    bitAccumulati += 30;
+                    while (bitAccumulati >= 8) {
+                        byteNumero[byteNumero.length - 1 - scritti++] = (byte) accumulatore;
+                        accumulatore >>>= 8;
+                        bitAccumulati -= 8;
+                    }
+                }
+            }
+            if (bitAccumulati > 0) {
+                byteNumero[byteNumero.length - 1 - scritti] = (byte) accumulatore;
+            }
+            return new BigInteger(1, byteNumero);
+        }
+
+        String valore(int posto) {
+            return grande(posto).toString();
+        }
+    }
+
+    // Aritmetiche selezionabili con l'opzione --aritmetica.
+    enum Aritmetica {
+        INT, LONG, SATURATA, MODULARE, ESATTA;
+
+        static Aritmetica daNome(String nome) {
+            for (Aritmetica aritmetica : values()) {
+                if (aritmetica.name().equalsIgnoreCase(nome)) {
+                    return aritmetica;
+                }
+            }
+            throw new IllegalArgumentException("Aritmetica non valida: " + nome);
+        }
+
+        Contatore crea(long modulo) {
+            switch (this) {
+                case INT:
+                    return new ContatoreInt();
+                case SATURATA:
+                    return new ContatoreSaturato();
+                case MODULARE:
+                    return new ContatoreModulare(modulo);
+                case ESATTA:
+                    return new ContatoreEsatto();
+                default:
+                    return new ContatoreLong();
+            }
+        }
+    }
+
+    /* Stato della programmazione dinamica durante la lettura di una sequenza, un carattere alla volta. Le
+    combinazioni dei prefissi sono nei posti del contatore: quella del prefisso lungo i sta nel posto i & maschera.
+    Il buffer ha dimensione potenza di 2 almeno lunghezzaMassima + 1, quindi i posti letti (i - len, con
+    len <= lunghezzaMassima) non coincidono mai con quello scritto, e i posti di indice negativo non sono ancora
+    stati scritti e valgono zero. La memoria usata è O(lunghezza massima dei codici) e non dipende dalla lunghezza
+    della sequenza. La lettura può anche iniziare a metà di una sequenza, da una posizione e uno stato dell'automa
+    dati e con un solo prefisso precedente che vale 1 (vedi Trasferimento). */
+    private static final class Decodifica {
+        private final Automa automa;
+        private final Contatore contatore;
+        private final int maschera;
+        private final int[] sorgenti;
+        private int stato;
+        private long posizione;
+
+        Decodifica(Automa automa, Contatore contatore) {
+            this(automa, contatore, 0, 0, 0);
+        }
+
+        Decodifica(Automa automa, Contatore contatore, int stato, long posizione, long posizioneUno) {
+            this.automa = automa;
+            this.contatore = contatore;
+            maschera = Integer.highestOneBit(automa.lunghezzaMassima) * 2 - 1;
+            sorgenti = new int[automa.massimoUscite];
+            contatore.prepara(maschera + 1);
+            contatore.uno((int) posizioneUno & maschera);
+            this.stato = stato;
+            this.posizione = posizione;
+        }
+
+        void avanza(char c) {
+            stato = automa.transizione(stato, c);
+            posizione++;
+            final int[] lunghezze = automa.lunghezze;
+            int numero = 0;
+            for (int k = automa.inizio[stato]; k < automa.inizio[stato + 1]; k++) {
+                sorgenti[numero++] = (int) (posizione - lunghezze[k]) & maschera;
+            }
+            contatore.somma((int) posizione & maschera, sorgenti, numero);
+        }
+
+        /* Come avanza, ma con i codici che terminano nella nuova posizione già noti come insieme di lunghezze (il bit
+        len - 1 per la lunghezza len, vedi Automa.finestre): lo stato dell'automa non viene aggiornato. */
+        void avanzaLunghezze(int insieme) {
+            posizione++;
+            int numero = 0;
+            while (insieme != 0) {
+                sorgenti[numero++] = (int) (posizione - 1 - Integer.numberOfTrailingZeros(insieme)) & maschera;
+                insieme &= insieme - 1;
+            }
+            contatore.somma((int) posizione & maschera, sorgenti, numero);
+        }
+
+        String risultato() {
+            return contatore.valore((int) posizione & maschera);
+        }
+
+        // Combinazioni del prefisso lungo posizione - indietro, con indietro < lunghezzaMassima.
+        BigInteger combinazioni(int indietro) {
+            return contatore.grande((int) (posizione - indietro) & maschera);
+        }
+    }
+
+    /* Conta le decodifiche della sequenza con l'aritmetica del contatore, tenendo solo le ultime combinazioni. */
+    static String decodifiche(CharSequence sequenza, Automa automa, Contatore contatore) {
+        Decodifica decodifica = new Decodifica(automa, contatore);
+        for (int i = 0; i < sequenza.length(); i++) {
+            decodifica.avanza(sequenza.charAt(i));
+        }
+        return decodifica.risultato();
+    }
+
+    /* Versione su sequenza compatta: con codici lunghi al più 16 caratteri non serve l'automa, perché i codici che
+    terminano in una posizione dipendono solo dagli ultimi lunghezzaMassima bit, che si tengono in un intero
+    aggiornato con uno scorrimento e una maschera; una sola lettura della tabella Automa.finestre dà tutte le lunghezze
+    dei codici che coincidono con la fine della finestra. I bit si leggono una parola da 64 alla volta. Nelle prime
+    posizioni la finestra è più lunga del prefisso letto, quindi si tengono solo i codici non più lunghi del prefisso.
+    Con codici più lunghi si usa l'automa, un bit alla volta. */
+    static String decodifiche(SequenzaBinaria sequenza, Automa automa, Contatore contatore) {
+        Decodifica decodifica = new Decodifica(automa, contatore);
+        int lunghezza = sequenza.length();
+        if (automa.finestre == null) {
+            for (int i = 0; i < lunghezza; i++) {
+                decodifica.avanza(sequenza.charAt(i));
+            }
+            return decodifica.risultato();
+        }
+        final int[] finestre = automa.finestre;
+        final int mascheraFinestra = (1 << automa.lunghezzaMassima) - 1;
+        final long[] parole = sequenza.parole;
+        int finestra = 0;
+        int i = 0;
+        for (int p = 0; i < lunghezza; p++) {
+            long parola = parole[p];
+            int fine = Math.min(lunghezza, i + 64);
+            for (; i < fine; i++, parola >>>= 1) {
+                finestra = ((finestra << 1) | (int) (parola & 1)) & mascheraFinestra;
+                int insieme = finestre[finestra];
+                if (i < automa.lunghezzaMassima) {
+                    insieme &= (2 << i) - 1;
+                }
+                decodifica.avanzaLunghezze(insieme);
+            }
+        }
+        return decodifica.risultato();
+    }
+
+    /* Sequenza binaria compatta: un bit per carattere in un array di long (il carattere i è il bit i % 64 della
+    parola i / 64), 16 volte meno memoria di una String in UTF-16. Si legge come una CharSequence di '0' e '1', così
+    la possono usare anche le altre versioni dell'algoritmo. Se l'input contiene un carattere diverso da 0 e 1 la
+    sequenza non è binaria e non viene conservata: nessun codice lo contiene, quindi le combinazioni da quel punto in
+    poi sono tutte zero e il numero di decodifiche è 0. */
+    static final class SequenzaBinaria implements CharSequence {
+        final long[] parole;
+        final int lunghezza;
+        final boolean binaria;
+
+        private SequenzaBinaria(long[] parole, int lunghezza, boolean binaria) {
+            this.parole = parole;
+            this.lunghezza = lunghezza;
+            this.binaria = binaria;
+        }
+
+        static SequenzaBinaria da(CharSequence caratteri) {
+            int lunghezza = caratteri.length();
+            long[] parole = new long[(lunghezza + 63) >>> 6];
+            for (int i = 0; i < lunghezza; i++) {
+                char c = caratteri.charAt(i);
+                if (c == '1') {
+                    parole[i >>> 6] |= 1L << i;
+                } else if (c != '0') {
+                    return new SequenzaBinaria(new long[0], 0, false);
+                }
+            }
+            return new SequenzaBinaria(parole, lunghezza, true);
+        }
+
+        /* Legge la prima riga del file a blocchi, come decodificheFlusso, e la impacchetta senza passare da una
+        String; restituisce null se il file è vuoto. */
+        static SequenzaBinaria leggi(Path file) throws IOException {
+            long[] parole = new long[16];
+            int lunghezza = 0;
+            ByteBuffer blocco = ByteBuffer.allocate(DIMENSIONE_BLOCCO);
+            byte[] dati = blocco.array();
+            boolean vuoto = true;
+            try (FileChannel canale = FileChannel.open(file, StandardOpenOption.READ)) {
+                int letti;
+                lettura:
+                while ((letti = canale.read(blocco)) != -1) {
+                    vuoto &= letti == 0;
+                    for (int p = 0; p < letti; p++) {
+                        byte c = dati[p];
+                        if (c == '\n' || c == '\r') {
+                            break lettura;
+                        }
+                        if (c != '0' && c != '1') {
+                            return new SequenzaBinaria(new long[0], 0, false);
+                        }
+                        if (lunghezza == Integer.MAX_VALUE) {
+                            throw new IOException("Sequenza troppo lunga, usare --flusso");
+                        }
+                        if ((lunghezza >>> 6) == parole.length) {
+                            parole = Arrays.copyOf(parole, 2 * parole.length);
+                        }
+                        if (c == '1') {
+                            parole[lunghezza >>> 6] |= 1L << lunghezza;
+                        }
+                        lunghezza++;
+                    }
+                    blocco.clear();
+                }
+            }
+            return vuoto ? null : new SequenzaBinaria(parole, lunghezza, true);
+        }
+
+        int bit(int i) {
+            return (int) (parole[i >>> 6] >>> i) & 1;
+        }
+
+        public int length() {
+            return lunghezza;
+        }
+
+        public char charAt(int i) {
+            return (char) ('0' + bit(i));
+        }
+
+        public CharSequence subSequence(int da, int a) {
+            return toString().substring(da, a);
+        }
+
+        public String toString() {
+            StringBuilder caratteri = new StringBuilder(lunghezza);
+            for (int i = 0; i < lunghezza; i++) {
+                caratteri.append(charAt(i));
+            }
+            return caratteri.toString();
+        }
+    }
+
+    /* Versione in flusso dello stesso algoritmo, per sequenze troppo lunghe per stare in memoria come String.
+    Il file viene letto a blocchi da un FileChannel e la sequenza termina al primo \n o \r (come nella lettura con
+    Scanner); la memoria usata è quella di un blocco più quella della Decodifica. */
+    static String decodificheFlusso(Path file, Automa automa, Contatore contatore) throws IOException {
+        Decodifica decodifica = new Decodifica(automa, contatore);
+        ByteBuffer blocco = ByteBuffer.allocate(DIMENSIONE_BLOCCO);
+        byte[] dati = blocco.array();
+        try (FileChannel canale = FileChannel.open(file, StandardOpenOption.READ)) {
+            int letti;
+            while ((letti = canale.read(blocco)) != -1) {
+                for (int p = 0; p < letti; p++) {
+                    char c = (char) dati[p];
+                    if (c == '\n' || c == '\r') {
+                        return decodifica.risultato();
+                    }
+                    decodifica.avanza(c);
+                }
+                blocco.clear();
+            }
+        }
+        return decodifica.risultato();
+    }
+
+    private static final int DIMENSIONE_BLOCCO = 1 << 16;
+
+    /* Calcolo parallelo con le matrici di trasferimento. La ricorrenza è lineare: il vettore delle ultime L
+    combinazioni (L = lunghezza massima dei codici) dopo un blocco di caratteri è una matrice L x L, che dipende solo
+    dai caratteri del blocco, per il vettore prima del blocco; la matrice dell'intera sequenza è il prodotto delle
+    matrici dei blocchi, e il prodotto di matrici è associativo, quindi i blocchi si calcolano in modo indipendente e
+    si combinano con una riduzione ad albero in un ForkJoinPool. Vale solo con le aritmetiche modulare ed esatta,
+    che sono le uniche per cui la somma e il prodotto si comportano come quelli degli interi.
+    - La colonna j della matrice di un blocco si ottiene con una Decodifica che parte con 1 nella combinazione
+      j posizioni prima del blocco e 0 nelle altre; lo stato iniziale dell'automa dipende solo dagli ultimi L
+      caratteri prima del blocco (nessuno stato corrisponde a un prefisso più lungo di L), quindi si ricava
+      rileggendo quelli. Il lavoro sui blocchi è L volte quello sequenziale, diviso fra i thread.
+    - In aritmetica modulare i blocchi sono pochi e grandi (quattro per thread); in aritmetica esatta sono piccoli
+      (BLOCCO_ESATTO caratteri), così i numeri crescono solo salendo nell'albero e i prodotti grandi usano la
+      moltiplicazione sottoquadratica di BigInteger: il costo è O(L^3 M(n) log n) invece di O(n^2) della versione
+      sequenziale. Gli elementi delle matrici con numeri grandi si calcolano a loro volta in parallelo. */
+    private static final class Trasferimento {
+        private static final int BLOCCO_ESATTO = 1 << 12;
+        private static final int BLOCCO_MINIMO = 1 << 12;
+        private static final int BIT_PRODOTTO_PARALLELO = 1 << 16;
+
+        private final Automa automa;
+        private final Aritmetica aritmetica;
+        private final long modulo;
+        private final BigInteger moduloGrande;
+        private final int dimensione;
+
+        Trasferimento(Automa automa, Aritmetica aritmetica, long modulo) {
+            if (aritmetica != Aritmetica.MODULARE && aritmetica != Aritmetica.ESATTA) {
+                throw new IllegalArgumentException("Il calcolo parallelo richiede l'aritmetica modulare o esatta");
+            }
+            this.automa = automa;
+            this.aritmetica = aritmetica;
+            this.modulo = modulo;
+            moduloGrande = aritmetica == Aritmetica.MODULARE ? BigInteger.valueOf(modulo) : null;
+            dimensione = automa.lunghezzaMassima;
+        }
+
+        String conta(CharSequence sequenza, ForkJoinPool pool) {
+            int lunghezza = sequenza.length();
+            if (lunghezza == 0) {
+                return riduci(BigInteger.ONE).toString();
+            }
+            int dimensioneBlocco = aritmetica == Aritmetica.ESATTA
+                    ? BLOCCO_ESATTO
+                    : Math.max(BLOCCO_MINIMO,
+                            (lunghezza + 4 * pool.getParallelism() - 1) / (4 * pool.getParallelism()));
+            int blocchi = (lunghezza + dimensioneBlocco - 1) / dimensioneBlocco;
+            BigInteger[] prodotto = pool.invoke(new Prodotto(sequenza, dimensioneBlocco, 0, blocchi));
+            // Prima della sequenza il vettore delle combinazioni è (1, 0, ..., 0): basta la prima colonna.
+            return prodotto[0].toString();
+        }
+
+        // Prodotto delle matrici dei blocchi [primo, ultimo), con il blocco più recente a sinistra.
+        private final class Prodotto extends RecursiveTask<BigInteger[]> {
+            private static final long serialVersionUID = 1L;
+
+            private final CharSequence sequenza;
+            private final int dimensioneBlocco;
+            private final int primo;
+            private final int ultimo;
+
+            Prodotto(CharSequence sequenza, int dimensioneBlocco, int primo, int ultimo) {
+                this.sequenza = sequenza;
+                this.dimensioneBlocco = dimensioneBlocco;
+                this.primo = primo;
+                this.ultimo = ultimo;
+            }
+
+            protected BigInteger[] compute() {
+                if (ultimo - primo == 1) {
+                    int da = primo * dimensioneBlocco;
+                    return blocco(sequenza, da, Math.min(sequenza.length(), da + dimensioneBlocco));
+                }
+                int medio = (primo + ultimo) >>> 1;
+                Prodotto prima = new Prodotto(sequenza, dimensioneBlocco, primo, medio);
+                prima.fork();
+                BigInteger[] dopo = new Prodotto(sequenza, dimensioneBlocco, medio, ultimo).compute();
+                return moltiplica(dopo, prima.join());
+            }
+        }
+
+        /* Matrice del blocco di caratteri [da, a), memorizzata per righe: l'elemento (r, j) è il coefficiente della
+        combinazione j posizioni prima del blocco in quella r posizioni prima della sua fine. */
+        private BigInteger[] blocco(CharSequence sequenza, int da, int a) {
+            int stato = 0;
+            for (int i = Math.max(0, da - dimensione); i < da; i++) {
+                stato = automa.transizione(stato, sequenza.charAt(i));
+            }
+            BigInteger[] matrice = new BigInteger[dimensione * dimensione];
+            for (int j = 0; j < dimensione; j++) {
+                Decodifica decodifica = new Decodifica(automa, aritmetica.crea(modulo), stato, da, da - j);
+                for (int i = da; i < a; i++) {
+                    decodifica.avanza(sequenza.charAt(i));
+                }
+                for (int r = 0; r < dimensione; r++) {
+                    matrice[r * dimensione + j] = decodifica.combinazioni(r);
+                }
+            }
+            return matrice;
+        }
+
+        private BigInteger[] moltiplica(BigInteger[] sinistra, BigInteger[] destra) {
+            BigInteger[] risultato = new BigInteger[dimensione * dimensione];
+            java.util.function.IntConsumer elemento = e -> {
+                int r = e / dimensione;
+                int c = e % dimensione;
+                BigInteger somma = BigInteger.ZERO;
+                for (int k = 0; k < dimensione; k++) {
+                    BigInteger a = sinistra[r * dimensione + k];
+                    BigInteger b = destra[k * dimensione + c];
+                    if (a.signum() != 0 && b.signum() != 0) {
+                        somma = somma.add(a.multiply(b));
+                    }
+                }
+                risultato[e] = riduci(somma);
+            };
+            boolean grandi = moduloGrande == null && Math.max(bit(sinistra), bit(destra)) >= BIT_PRODOTTO_PARALLELO;
+            java.util.stream.IntStream elementi = java.util.stream.IntStream.range(0, risultato.length);
+            (grandi ? elementi.parallel() : elementi).forEach(elemento);
+            return risultato;
+        }
+
+        private static int bit(BigInteger[] matrice) {
+            int massimo = 0;
+            for (BigInteger valore : matrice) {
+                massimo = Math.max(massimo, valore.bitLength());
+            }
+            return massimo;
+        }
+
+        private BigInteger riduci(BigInteger valore) {
+            return moduloGrande == null ? valore : valore.mod(moduloGrande);
+        }
+    }
+
+    /* Modalità batch: il file indicato (oppure ogni file regolare della cartella indicata, in ordine di nome)
+    contiene una sequenza per riga. L'automa è compilato una sola volta e condiviso fra i thread (è immutabile);
+    le righe vengono raggruppate in blocchi (al più RIGHE_PER_BLOCCO righe o CARATTERI_PER_BLOCCO caratteri) e
+    ogni blocco diventa un task del ForkJoinPool che restituisce il testo dei suoi risultati. I blocchi vengono
+    scritti nell'ordine di lettura attendendo il task corrispondente, per cui l'output ha una riga per ogni riga
+    dell'input, nello stesso ordine; al massimo 4 blocchi per thread sono in volo, così né l'input né i risultati
+    vengono tenuti interi in memoria. Con una cartella i risultati di ogni file sono preceduti da "# <nome file>".
+    Una riga il cui conteggio va in overflow nell'aritmetica long produce "overflow". */
+    private static void decodificaBatch(Automa automa, Opzioni opzioni) throws IOException {
+        Path percorso = Paths.get(opzioni.nomeFile);
+        boolean cartella = Files.isDirectory(percorso);
+        List<Path> file = new ArrayList<>();
+        if (cartella) {
+            try (DirectoryStream<Path> elenco = Files.newDirectoryStream(percorso)) {
+                for (Path elemento : elenco) {
+                    if (Files.isRegularFile(elemento)) {
+                        file.add(elemento);
+                    }
+                }
+            }
+            Collections.sort(file);
+        } else {
+            file.add(percorso);
+        }
+
+        Writer uscita = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        ForkJoinPool pool = new ForkJoinPool(opzioni.thread);
+        try {
+            int finestra = 4 * opzioni.thread;
+            ArrayDeque<ForkJoinTask<String>> inVolo = new ArrayDeque<>();
+            for (Path corrente : file) {
+                String intestazione = cartella ? "# " + corrente.getFileName() + "\n" : "";
+                try (BufferedReader ingresso = Files.newBufferedReader(corrente, StandardCharsets.ISO_8859_1)) {
+                    List<String> righe = new ArrayList<>();
+                    int caratteri = 0;
+                    String riga;
+                    while ((riga = ingresso.readLine()) != null) {
+                        righe.add(riga);
+                        caratteri += riga.length();
+                        if (righe.size() == RIGHE_PER_BLOCCO || caratteri >= CARATTERI_PER_BLOCCO) {
+                            invia(pool, inVolo, finestra, uscita, intestazione, righe, automa, opzioni);
+                            intestazione = "";
+                            righe = new ArrayList<>();
+                            caratteri = 0;
+                        }
+                    }
+                    if (!righe.isEmpty() || !intestazione.isEmpty()) {
+                        invia(pool, inVolo, finestra, uscita, intestazione, righe, automa, opzioni);
+                    }
+                }
+            }
+            while (!inVolo.isEmpty()) {
+                uscita.write(inVolo.poll().join());
+            }
+        } finally {
+            pool.shutdown();
+            uscita.flush();
+        }
+    }
+
+    private static final int RIGHE_PER_BLOCCO = 4096;
+    private static final int CARATTERI_PER_BLOCCO = 1 << 20;
+
+    // Affida un blocco di righe al pool, scrivendo prima il blocco più vecchio se la finestra è piena.
+    private static void invia(ForkJoinPool pool, ArrayDeque<ForkJoinTask<String>> inVolo, int finestra, Writer uscita,
+                              String intestazione, List<String> righe, Automa automa, Opzioni opzioni)
+            throws IOException {
+        if (inVolo.size() >= finestra) {
+            uscita.write(inVolo.poll().join());
+        }
+        inVolo.add(pool.submit(() -> {
+            StringBuilder risultati = new StringBuilder(intestazione);
+            for (String riga : righe) {
+                try {
+                    risultati.append(decodifiche(riga, automa, opzioni.aritmetica.crea(opzioni.modulo)));
+                } catch (ArithmeticException e) {
+                    risultati.append("overflow");
+                }
+                risultati.append('\n');
+            }
+            return risultati.toString();
+        }));
+    }
+
+    private static final class Opzioni {
+        static final String USO = "Esempio: java Esercizio2 <nome_file> [opzioni]\n"
+                + "  --codici <f>       usa la tabella dei codici letta dal file f\n"
+                + "                     (codici separati da spazi, virgole o a capo)\n"
+                + "  --flusso           legge la sequenza a blocchi con memoria costante, per file di qualunque\n"
+                + "                     dimensione\n"
+                + "  --aritmetica <a>   int (32 bit, modulo 2^32), long (64 bit con errore in caso di overflow,\n"
+                + "                     predefinita), saturata (64 bit, si ferma a 2^63-1),\n"
+                + "                     modulare (modulo --modulo), esatta\n"
+                + "  --modulo <p>       conta modulo p, con 2 <= p < 2^62 (implica --aritmetica modulare;\n"
+                + "                     predefinito 1000000007)\n"
+                + "  --thread <k>       con k > 1 divide la sequenza fra k thread usando le matrici di trasferimento\n"
+                + "                     (solo con l'aritmetica modulare o esatta; default 1); con --batch decodifica\n"
+                + "                     le righe con k thread\n"
+                + "  --batch            il file (o ogni file della cartella) contiene una sequenza per riga: stampa\n"
+                + "                     un risultato per riga, nello stesso ordine";
+
+        static final long MODULO_PREDEFINITO = 1_000_000_007L;
+
+        String nomeFile;
+        String codici;
+        boolean flusso;
+        boolean batch;
+        Aritmetica aritmetica = Aritmetica.LONG;
+        long modulo = MODULO_PREDEFINITO;
+        int thread = 1;
+
+        static Opzioni leggi(String[] args) {
+            if (args.length < 1) {
+                throw new IllegalArgumentException("Parametro mancante");
+            }
+            Opzioni opzioni = new Opzioni();
+            opzioni.nomeFile = args[0];
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--codici":
+                        opzioni.codici = valore(args, ++i);
+                        break;
+                    case "--flusso":
+                        opzioni.flusso = true;
+                        break;
+                    case "--batch":
+                        opzioni.batch = true;
+                        break;
+                    case "--aritmetica":
+                        opzioni.aritmetica = Aritmetica.daNome(valore(args, ++i));
+                        break;
+                    case "--modulo":
+                        opzioni.modulo = modulo(valore(args, ++i));
+                        opzioni.aritmetica = Aritmetica.MODULARE;
+                        break;
+                    case "--thread":
+                        opzioni.thread = intero(args, ++i, 1);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Opzione non valida: " + args[i]);
+                }
+            }
+            if (opzioni.batch && opzioni.flusso) {
+                throw new IllegalArgumentException("--batch e --flusso non sono compatibili");
+            }
+            if (opzioni.batch) {
+                return opzioni;
+            }
+            if (opzioni.thread > 1 && opzioni.aritmetica != Aritmetica.MODULARE
+                    && opzioni.aritmetica != Aritmetica.ESATTA) {
+                throw new IllegalArgumentException("--thread richiede --aritmetica modulare o esatta");
+            }
+            if (opzioni.thread > 1 && opzioni.flusso) {
+                throw new IllegalArgumentException("--thread e --flusso non sono compatibili");
+            }
+            return opzioni;
+        }
+
+        static String valore(String[] args, int i) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException("Valore mancante per l'opzione " + args[i - 1]);
+            }
+            return args[i];
+        }
+
+        static int intero(String[] args, int i, int minimo) {
+            String valore = valore(args, i);
+            try {
+                int risultato = Integer.parseInt(valore);
+                if (risultato >= minimo) {
+                    return risultato;
+                }
+            } catch (NumberFormatException e) {
+                // segnalato sotto insieme ai valori fuori intervallo
+            }
+            throw new IllegalArgumentException("Valore non valido per l'opzione " + args[i - 1] + ": " + valore);
+        }
+
+        static long modulo(String testo) {
+            long modulo;
+            try {
+                modulo = Long.parseLong(testo);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Modulo non valido: " + testo);
+            }
+            if (modulo < 2 || modulo >= 1L << 62) {
+                throw new IllegalArgumentException("Il modulo deve essere compreso fra 2 e 2^62 - 1: " + testo);
+            }
+            return modulo;
+        }
+    }
+
+    /* Nel main viene letto il file che contiene la sequenza da analizzare, si assume che il file in input contenga
+    una sola riga, che viene letta direttamente in forma compatta (SequenzaBinaria).
+    Con --codici la tabella dei codici viene letta dal file indicato e compilata prima della sequenza; con --flusso
+    la sequenza non viene caricata in memoria ma letta a blocchi da decodificheFlusso.
+    Il conteggio usa l'aritmetica scelta con --aritmetica: con quella predefinita (long) un risultato troppo grande
+    viene segnalato invece di essere stampato sbagliato. Con --thread la sequenza viene divisa fra più thread con le
+    matrici di trasferimento. Con --batch ogni riga del file (o dei file della cartella) è una sequenza.
+    Stampa il numero di decodifiche possibili.*/
     public static void main(String[] args) {
         Locale.setDefault(Locale.US);
 
-        if (args.length != 1) {
-            System.out.println("Parametro mancante\nEsempio: java Esercizio2 <nome_file>");
+        Opzioni opzioni;
+        try {
+            opzioni = Opzioni.leggi(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage() + "\n" + Opzioni.USO);
             return;
         }
 
+        Automa automa = automaConsegna;
+        if (opzioni.codici != null) {
+            try {
+                automa = Automa.leggi(opzioni.codici);
+            } catch (IOException e) {
+                System.out.println("Errore nella lettura dei codici: " + e.getMessage());
+                return;
+            } catch (IllegalArgumentException e) {
+                System.out.println("Tabella dei codici non valida: " + e.getMessage());
+                return;
+            }
+        }
+
+        Contatore contatore = opzioni.aritmetica.crea(opzioni.modulo);
         try {
-            Scanner scanner = new Scanner(new File(args[0]));
-            if (scanner.hasNextLine()) {
-                String sequenza = scanner.nextLine();
-                System.out.println(decodifichePossibili(sequenza));
+            if (opzioni.batch) {
+                decodificaBatch(automa, opzioni);
+            } else if (opzioni.flusso) {
+                Path file = Paths.get(opzioni.nomeFile);
+                if (Files.size(file) == 0) {
+                    System.out.println("File vuoto");
+                } else {
+                    System.out.println(decodificheFlusso(file, automa, contatore));
+                }
             } else {
-                System.out.println("File vuoto");
+                SequenzaBinaria sequenza = SequenzaBinaria.leggi(Paths.get(opzioni.nomeFile));
+                if (sequenza != null) {
+                    if (!sequenza.binaria) {
+                        System.out.println(0);
+                    } else if (opzioni.thread > 1) {
+                        ForkJoinPool pool = new ForkJoinPool(opzioni.thread);
+                        try {
+                            Trasferimento trasferimento = new Trasferimento(automa, opzioni.aritmetica, opzioni.modulo);
+                            System.out.println(trasferimento.conta(sequenza, pool));
+                        } finally {
+                            pool.shutdown();
+                        }
+                    } else {
+                        System.out.println(decodifiche(sequenza, automa, contatore));
+                    }
+                } else {
+                    System.out.println("File vuoto");
+                }
             }
-        } catch (IOException e) {
+        } catch (IOException | InvalidPathException e) {
             System.out.println("Errore nella lettura del file: " + e.getMessage());
+        } catch (ArithmeticException e) {
+            System.out.println("Il numero di decodifiche supera 2^63 - 1: "
+                    + "usare --aritmetica esatta, saturata o --modulo <p>");
         }
     }
-}
\ No newline at end of file
+}
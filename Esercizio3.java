@@ -6,56 +6,415 @@ Struttura dati utilizzata:
   è la lista cammini, implementata come ArrayList; ciascun oggetto salvato di tipo cammino contiene il costo totale e
   la sequenza di nodi attraversata. La scelta di ArrayList è giustificata perchè bisogna salvare un numero ristretto
   di cammini (<= 3), ha un accesso rapido utile per la stampa e l'inserimento con add è efficiente.
-- A supporto di questa struttura viene anche utilizzato un HashSet archiUsati, per registrare gli archi già utilizzati
-  nei cammini precedenti, in modo da garantire cammini completamente distinti tra loro; infatti, prima di aggiungere
-  un cammino alla lista, viene fatto un controllo su archiUsati.
+- A supporto di questa struttura viene anche utilizzato un bitset archiEsclusi (un bit per ogni link, indicizzato
+  dall'identificativo intero dell'arco), per registrare gli archi già utilizzati nei cammini precedenti, in modo da
+  garantire cammini completamente distinti tra loro; dijkstra salta gli archi il cui bit è attivo. I link paralleli
+  (stessi estremi) condividono un bit, come nella versione originale che identificava un arco con la stringa "u-v".
   Entrambe le strutture hanno costo di inserimento di O(1).
+- Le strutture di lavoro di dijkstra (distanze, padri, visitati, coda e bitset) sono raccolte in uno SpazioLavoro
+  allocato una sola volta per thread e riutilizzato da tutte le ricerche; invece di reinizializzare gli array con
+  Arrays.fill, ogni ricerca incrementa un contatore di epoca e un valore è considerato valido solo se la sua epoca
+  coincide con quella corrente.
+- Il grafo è memorizzato in formato CSR (compressed sparse row): l'array offset indica, per ogni nodo, l'intervallo
+  degli archi uscenti negli array paralleli destinazioni, pesi e idArchi. Gli archi di uno stesso nodo sono così
+  contigui in memoria e la visita dei vicini non deve seguire riferimenti fra oggetti distinti.
+- Ogni cammino conserva nodi e link in array di interi. Quando servono in memoria i risultati di molte coppie
+  (righe del calcolo parallelo o batch, motore incrementale) i cammini vengono copiati in un ArchivioCammini: pochi
+  array condivisi con le posizioni di ogni cammino, 8 byte per nodo invece di un oggetto per ogni nodo.
 
 Costo computazionale:
 Dati n (numero di nodi) e m (numero di archi):
-- costruisciGrafo: crea la lista di adiacenza che rappresenta il grafo, per ogni riga del file si fanno operazioni di
-  inserimento; per allocare la struttura avremo costo O(n) e per leggere e inserire gli archi O(m).
+- costruisciGrafo: legge gli archi dal file mappato in memoria, in un solo passaggio e senza creare stringhe, e
+  costruisce il grafo CSR, per ogni riga del file si fanno operazioni di inserimento; il conteggio dei gradi e le
+  somme prefisse costano O(n) e il riempimento degli array O(m).
   Pertanto, avremo un costo totale di O(n + m).
-- dijkstra: utilizza l'algoritmo di Dijkstra implementato con MinHeap.
-  Prima di iniziare la ricerca deve inizializzare e allocare tre array: distanze (per le stime delle distanze minime di
-  un percorso), padri (per ricostruire i cammini) e visitati (a ogni nodo viene assegnato true se è stato visitato)
-  per un costo di O(n).
+- dijkstra: utilizza l'algoritmo di Dijkstra implementato con MinHeap (o con una delle code alternative: con l'heap
+  quaternario l'altezza scende a log4 n, con il radix heap ogni operazione costa O(1) ammortizzato più
+  O(log C) ridistribuzioni per nodo, dove C è la massima distanza scalata).
+  Gli array distanze (per le stime delle distanze minime di un percorso), padri (per ricostruire i cammini) e
+  visitati sono riutilizzati grazie alle epoche, quindi la loro inizializzazione ha costo O(1); anche la coda parte
+  dalla sola sorgente e i nodi vi entrano quando vengono raggiunti, così una ricerca che si ferma presto non paga
+  O(n). Fra due nodi alla stessa distanza gli heap indicizzati estraggono per primo quello con identificativo
+  minore: da questa scelta dipendono il primo cammino e quindi quante alternative disgiunte trova l'approccio avido,
+  e con essa heap binario e quaternario danno gli stessi cammini. Rispetto al programma originale, che riempiva la
+  coda con tutti i nodi e lasciava decidere la forma dell'heap, nei grafi con molti cammini di pari costo i cammini
+  possono cambiare; la coda "oggetti" (il MinHeap originale) è ancora riempita con tutti i nodi e riproduce
+  esattamente quei cammini. Anche il radix heap, che estrae i nodi di pari costo in un ordine che dipende dai
+  bucket, può scegliere cammini diversi.
   Il ciclo while scorre tutti i nodi svolgendo al massimo n estrazioni di costo O(log n) dalla coda,
   per un totale di O(n log n).
   A ogni iterazione deve controllare che gli m archi uscenti da quel nodo non siano già stati utilizzati in cammini
-  già calcolati per quei nodi (costo O(1)) e aggiornare la coda (costo O(log n)) per un costo di O(m log n).
+  già calcolati per quei nodi (lettura di un bit, costo O(1)) e aggiornare la coda (costo O(log n)) per un costo
+  di O(m log n).
   La ricostruzione del percorso tramite i padri ha costo O(n).
   Il costo totale di questo metodo è O((n + m) log n).
 - Il metodo trovaCamminiDistinti richiama il metodo dijkstra per un massimo di 3 volte, per un costo
   di 3 * O((n + m) log n), la costante viene tuttavia ignorata nella notazione O, quindi avremo O((n + m) log n).
+- Il motore alternativo trovaCamminiSuurballe (opzione --motore suurballe) esegue una ricerca di dijkstra e al
+  massimo k - 1 ricerche sul grafo residuo, ciascuna O((n + m) log n), più O(n) per aggiornare i potenziali e
+  O(m) per scomporre il flusso nei cammini: in totale O(k (n + m) log n).
 - Il metodo stampa contiene un ciclo che scorre sulla lista cammini facendo al massimo C iterazioni
   e ogni percorso conterrà al massimo k nodi. Il costo ottenuto è O(C*k), ma dato che C è una costante e
-  k è minore o uguale a n, possiamo dire che il costo è O(n).
+  k è minore o uguale a n, possiamo dire che il costo è O(n). La scrittura passa da un buffer da 1 MB (o dal
+  formato binario con nodi in varint), quindi le chiamate al sistema operativo sono una ogni MB di output.
 - Il main utilizza due cicli for annidati per ottenere tutte le coppie sorgente-destinazione, le coppie totali
   sono n(n-1), ovvero Θ(n^2). Su ogni coppia viene chiamato il metodo trovaCamminiDistinti e il metodo
   stampa (trascurabile rispetto a trovaCamminiDistinti).
+  Con l'opzione --thread le righe (tutte le coppie di una stessa sorgente) vengono calcolate in parallelo da un
+  ForkJoinPool: il lavoro totale resta lo stesso ma viene diviso fra i thread, mentre la stampa avviene sempre
+  nell'ordine originale. Il grafo CSR è immutabile e condiviso in sola lettura, ogni thread usa il proprio
+  SpazioLavoro.
+  Con l'opzione --batch ogni sorgente richiede una sola ricerca completa per i primi cammini e ogni coppia non
+  ordinata viene calcolata una sola volta: le ricerche passano da 3n(n-1) a n + n(n-1) nel caso peggiore. A parità
+  di costo i cammini da s a d < s sono gli inversi di quelli da d a s, quindi possono differire da quelli del
+  calcolo standard.
+- Con l'opzione --aggiornamenti il MotoreIncrementale conserva i risultati di tutte le coppie e un indice inverso
+  link -> coppie che lo attraversano. Per ogni modifica di un link si copia l'array dei pesi (O(m)), si eseguono
+  due ricerche dagli estremi del link se il peso diminuisce (O((n + m) log n)) e si controllano, con le distanze
+  trovate, solo le coppie fra i nodi vicini al link (O(n) più il prodotto dei candidati, O(n^2) nel caso peggiore);
+  vengono poi ricalcolate solo le coppie interessate, anziché tutte le n(n-1). Le liste dell'indice vengono
+  compattate quando più di metà delle loro voci non è più valida (O(m) per modifica più le liste compattate).
+- Con l'opzione --gerarchia la preelaborazione contrae tutti i nodi, con ricerche dei testimoni limitate a un numero
+  costante di estrazioni, e il risultato viene salvato su file; il primo cammino di ogni coppia è poi una dijkstra
+  bidirezionale sul solo grafo verso l'alto, che nei grafi con struttura gerarchica (reti stradali, griglie)
+  visita una piccola frazione dei nodi. Le alternative disgiunte restano ricerche di dijkstra sul grafo intero.
+- Con l'opzione --metriche ogni ricerca aggiunge i propri contatori a quelli del thread una sola volta, O(1), e ogni
+  coppia aggiorna due istogrammi, O(1); l'esportazione somma le istanze dei thread in O(t), con t thread.
 Il costo totale è di O(n^2 * (n+m) log n).
 */
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class Esercizio3 {
 
-    static int n;
-    static int m;
-    static Vector<LinkedList<Arco>> listaAdiacenza;
+    static final int NUMERO_CAMMINI = 3;
+    static final double TOLLERANZA = 1e-9;
+
+    /* Coda di priorità sui nodi usata da dijkstra. Le implementazioni sono intercambiabili (opzione --coda):
+    - MinHeap: heap binario con un oggetto per elemento (implementazione originale);
+    - HeapIndicizzato: heap d-ario (binario o quaternario) su array paralleli di primitivi;
+    - HeapRadix: radix heap a bucket per priorità intere o a virgola fissa, sfrutta il fatto che dijkstra estrae
+      priorità non decrescenti.
+    Un nodo può comparire al massimo una volta; minimo restituisce il nodo con priorità minima senza rimuoverlo. */
+    private interface CodaPriorita {
+        /* Prepara la coda (vuota) per una ricerca dalla sorgente e restituisce il numero di nodi inseriti. Le code
+        inseriscono solo la sorgente, tranne MinHeap che, come la versione originale, inserisce tutti i nodi (la
+        sorgente a priorità 0 e gli altri a priorità infinita) e riproduce così i cammini originali a parità di
+        costo. */
+        int avvia(int sorgente);
+
+        boolean vuoto();
+
+        boolean contiene(int nodo);
+
+        void inserisci(int nodo, double priorita);
+
+        int minimo();
+
+        void eliminaMinimo();
+
+        void cambiaPriorita(int nodo, double nuovaPriorita);
+
+        void svuota();
+    }
+
+    // Tipi di coda selezionabili con l'opzione --coda.
+    private enum TipoCoda {
+        OGGETTI, BINARIO, QUATERNARIO, RADIX;
+
+        static TipoCoda daNome(String nome) {
+            for (TipoCoda tipo : values()) {
+                if (tipo.name().equalsIgnoreCase(nome)) {
+                    return tipo;
+                }
+            }
+            throw new IllegalArgumentException("Coda non valida: " + nome);
+        }
+
+        CodaPriorita crea(GrafoCSR grafo) {
+            switch (this) {
+                case OGGETTI:
+                    return new MinHeap(grafo.numeroNodi);
+                case QUATERNARIO:
+                    return new HeapIndicizzato(grafo.numeroNodi, 4);
+                case RADIX:
+                    if (grafo.scalaPesi == 0) {
+                        throw new IllegalArgumentException(
+                                "La coda radix richiede pesi interi o con al massimo 6 decimali");
+                    }
+                    return new HeapRadix(grafo.numeroNodi, grafo.scalaPesi);
+                default:
+                    return new HeapIndicizzato(grafo.numeroNodi, 2);
+            }
+        }
+    }
+
+    /* Heap d-ario indicizzato: il nodo e la priorità dell'elemento in posizione i stanno in nodi[i] e priorita[i],
+    mentre posizione[nodo] è l'indice dell'elemento nell'heap (-1 se assente). Non esistono oggetti per elemento e
+    risali/scendi spostano gli elementi "a buco", scrivendo il valore che sale o scende una sola volta alla fine.
+    Gli elementi sono ordinati per priorità e, a parità di priorità, per nodo: l'ordine di estrazione non dipende
+    dalla forma dell'heap ed è lo stesso con qualsiasi arità. Con arità 4 l'albero è più basso (log4 n) e i quattro
+    figli di un nodo sono contigui in memoria, a costo di qualche confronto in più in scendi. */
+    private static final class HeapIndicizzato implements CodaPriorita {
+        private final int arita;
+        private final int[] nodi;
+        private final double[] priorita;
+        private final int[] posizione;
+        private int dimensione;
+
+        HeapIndicizzato(int dimensioneMassima, int arita) {
+            this.arita = arita;
+            this.nodi = new int[dimensioneMassima];
+            this.priorita = new double[dimensioneMassima];
+            this.posizione = new int[dimensioneMassima];
+            Arrays.fill(this.posizione, -1);
+        }
+
+        public int avvia(int sorgente) {
+            inserisci(sorgente, 0.0);
+            return 1;
+        }
+
+        public boolean vuoto() {
+            return dimensione == 0;
+        }
+
+        public boolean contiene(int nodo) {
+            return posizione[nodo] != -1;
+        }
+
+        public void inserisci(int nodo, double p) {
+            risali(dimensione++, nodo, p);
+        }
+
+        public int minimo() {
+            return nodi[0];
+        }
+
+        public void eliminaMinimo() {
+            posizione[nodi[0]] = -1;
+            dimensione--;
+            if (dimensione > 0) {
+                scendi(0, nodi[dimensione], priorita[dimensione]);
+            }
+        }
+
+        public void cambiaPriorita(int nodo, double nuovaPriorita) {
+            int i = posizione[nodo];
+            if (nuovaPriorita > priorita[i]) {
+                scendi(i, nodo, nuovaPriorita);
+            } else {
+                risali(i, nodo, nuovaPriorita);
+            }
+        }
+
+        public void svuota() {
+            for (int i = 0; i < dimensione; i++) {
+                posizione[nodi[i]] = -1;
+            }
+            dimensione = 0;
+        }
+
+        // Vero se (nodo, p) va estratto prima dell'elemento in posizione j: priorità minore o, se uguale, nodo minore.
+        private boolean precede(int nodo, double p, int j) {
+            double q = priorita[j];
+            return p < q || (p == q && nodo < nodi[j]);
+        }
+
+        // Colloca (nodo, p) partendo dal buco i e facendo scendere i genitori che vanno estratti dopo.
+        private void risali(int i, int nodo, double p) {
+            while (i > 0) {
+                int genitore = (i - 1) / arita;
+                if (!precede(nodo, p, genitore)) {
+                    break;
+                }
+                sposta(genitore, i);
+                i = genitore;
+            }
+            colloca(i, nodo, p);
+        }
+
+        // Colloca (nodo, p) partendo dal buco i e facendo salire il figlio minimo finché va estratto prima.
+        private void scendi(int i, int nodo, double p) {
+            while (true) {
+                int primo = i * arita + 1;
+                if (primo >= dimensione) {
+                    break;
+                }
+                int minimo = primo;
+                int ultimo = Math.min(primo + arita, dimensione);
+                double pMinimo = priorita[minimo];
+                for (int figlio = primo + 1; figlio < ultimo; figlio++) {
+                    double pFiglio = priorita[figlio];
+                    // Il nodo del figlio si legge solo a parità di priorità.
+                    if (pFiglio < pMinimo || (pFiglio == pMinimo && nodi[figlio] < nodi[minimo])) {
+                        minimo = figlio;
+                        pMinimo = pFiglio;
+                    }
+                }
+                if (precede(nodo, p, minimo)) {
+                    break;
+                }
+                sposta(minimo, i);
+                i = minimo;
+            }
+            colloca(i, nodo, p);
+        }
+
+        private void sposta(int da, int a) {
+            nodi[a] = nodi[da];
+            priorita[a] = priorita[da];
+            posizione[nodi[a]] = a;
+        }
+
+        private void colloca(int i, int nodo, double p) {
+            nodi[i] = nodo;
+            priorita[i] = p;
+            posizione[nodo] = i;
+        }
+    }
+
+    /* Radix heap per priorità non negative rappresentabili come interi dopo la moltiplicazione per scala (la
+    potenza di 10 calcolata dal grafo). Il bucket 0 contiene le chiavi uguali all'ultima chiave estratta, il bucket
+    i > 0 quelle che differiscono da essa a partire dal bit i - 1: il bucket di una chiave si calcola con uno XOR e
+    un conteggio degli zeri iniziali. I bucket sono liste doppiamente collegate negli array successivo e
+    precedente, quindi inserimento, diminuzione di priorità e rimozione costano O(1); estrarre il minimo quando il
+    bucket 0 è vuoto ridistribuisce il primo bucket non vuoto, e ogni chiave può scendere di bucket al più 64 volte.
+    Funziona solo se le priorità estratte non decrescono, proprietà garantita da dijkstra con pesi non negativi. */
+    private static final class HeapRadix implements CodaPriorita {
+        private static final int NUMERO_BUCKET = 65;
+
+        private final double scala;
+        private final long[] chiavi;
+        private final int[] bucket;
+        private final int[] successivo;
+        private final int[] precedente;
+        private final int[] teste = new int[NUMERO_BUCKET];
+        private long ultimaChiave;
+        private int dimensione;
+
+        HeapRadix(int dimensioneMassima, double scala) {
+            this.scala = scala;
+            this.chiavi = new long[dimensioneMassima];
+            this.bucket = new int[dimensioneMassima];
+            this.successivo = new int[dimensioneMassima];
+            this.precedente = new int[dimensioneMassima];
+            Arrays.fill(this.bucket, -1);
+            Arrays.fill(this.teste, -1);
+        }
+
+        public int avvia(int sorgente) {
+            inserisci(sorgente, 0.0);
+            return 1;
+        }
+
+        public boolean vuoto() {
+            return dimensione == 0;
+        }
+
+        public boolean contiene(int nodo) {
+            return bucket[nodo] != -1;
+        }
+
+        public void inserisci(int nodo, double priorita) {
+            chiavi[nodo] = Math.round(priorita * scala);
+            aggiungi(nodo);
+            dimensione++;
+        }
+
+        public int minimo() {
+            if (teste[0] == -1) {
+                int i = 1;
+                while (teste[i] == -1) {
+                    i++;
+                }
+                long minimo = Long.MAX_VALUE;
+                for (int nodo = teste[i]; nodo != -1; nodo = successivo[nodo]) {
+                    minimo = Math.min(minimo, chiavi[nodo]);
+                }
+                ultimaChiave = minimo;
+                int nodo = teste[i];
+                teste[i] = -1;
+                while (nodo != -1) {
+                    int prossimo = successivo[nodo];
+                    aggiungi(nodo);
+                    nodo = prossimo;
+                }
+            }
+            return teste[0];
+        }
+
+        public void eliminaMinimo() {
+            int nodo = minimo();
+            togli(nodo);
+            bucket[nodo] = -1;
+            dimensione--;
+        }
+
+        public void cambiaPriorita(int nodo, double nuovaPriorita) {
+            togli(nodo);
+            chiavi[nodo] = Math.round(nuovaPriorita * scala);
+            aggiungi(nodo);
+        }
+
+        public void svuota() {
+            for (int i = 0; i < NUMERO_BUCKET; i++) {
+                for (int nodo = teste[i]; nodo != -1; nodo = successivo[nodo]) {
+                    bucket[nodo] = -1;
+                }
+                teste[i] = -1;
+            }
+            dimensione = 0;
+            ultimaChiave = 0;
+        }
+
+        private void aggiungi(int nodo) {
+            long chiave = chiavi[nodo];
+            int i = chiave == ultimaChiave ? 0 : 64 - Long.numberOfLeadingZeros(chiave ^ ultimaChiave);
+            bucket[nodo] = i;
+            precedente[nodo] = -1;
+            successivo[nodo] = teste[i];
+            if (teste[i] != -1) {
+                precedente[teste[i]] = nodo;
+            }
+            teste[i] = nodo;
+        }
+
+        private void togli(int nodo) {
+            int i = bucket[nodo];
+            if (precedente[nodo] != -1) {
+                successivo[precedente[nodo]] = successivo[nodo];
+            } else {
+                teste[i] = successivo[nodo];
+            }
+            if (successivo[nodo] != -1) {
+                precedente[successivo[nodo]] = precedente[nodo];
+            }
+        }
+    }
 
     /* Questa classe implementa un MinHeap, dove l'elemento con priorità minima viene estratto per primo; 
     questo meccanismo viene sfruttato da dijkstra per individuare il prossimo nodo a distanza minima
     da visitare. Per ogni nodo viene memorizzato nell'array posizione il suo indice corrente nell'heap,
     utile per velocizzare l'accesso ai nodi.
     Estrazione, aggiornamento e inserimento hanno complessità O(log n), perchè un heap di n elementi
-    ha al massimo altezza log n.*/
-    private static class MinHeap {
+    ha al massimo altezza log n.
+    È l'implementazione originale della coda (opzione --coda oggetti), le altre implementazioni di CodaPriorita
+    seguono la stessa interfaccia. */
+    private static class MinHeap implements CodaPriorita {
 
         private class elementoHeap {
-            public final int nodo;
+            public int nodo;
             public double priorita;
 
             public elementoHeap(int nodo, double priorita) {
@@ -145,18 +504,45 @@ public class Esercizio3 {
             } while (!finito);
         }
 
+        // Riempie la coda con tutti i nodi come faceva dijkstra nella versione originale.
+        public int avvia(int sorgente) {
+            for (int i = 0; i < dimensioneMassima; i++) {
+                inserisci(i, i == sorgente ? 0.0 : Double.POSITIVE_INFINITY);
+            }
+            return dimensioneMassima;
+        }
+
         public boolean vuoto() {
             return dimensione == 0;
         }
 
-        /*Inserisce un nuovo elemento, richiama risali per mantenere le proprietà della coda. */
+        public boolean contiene(int nodo) {
+            return posizione[nodo] != -1;
+        }
+
+        /*Inserisce un nuovo elemento, richiama risali per mantenere le proprietà della coda. Gli elementi allocati
+        in precedenza vengono riutilizzati, così una coda svuotata e riempita di nuovo non produce nuovi oggetti. */
         public void inserisci(int nodo, double priorita) {
             int i = dimensione++;
-            heap[i] = new elementoHeap(nodo, priorita);
+            if (heap[i] == null) {
+                heap[i] = new elementoHeap(nodo, priorita);
+            } else {
+                heap[i].nodo = nodo;
+                heap[i].priorita = priorita;
+            }
             posizione[nodo] = i;
             risali(i);
         }
 
+        /* Rimuove tutti gli elementi rimasti (ad esempio dopo un'uscita anticipata di dijkstra), riportando a -1
+        soltanto le posizioni dei nodi ancora presenti; costo O(dimensione). */
+        public void svuota() {
+            for (int i = 0; i < dimensione; i++) {
+                posizione[heap[i].nodo] = -1;
+            }
+            dimensione = 0;
+        }
+
         public int minimo() {
             return heap[0].nodo;
         }
@@ -187,216 +573,3260 @@ public class Esercizio3 {
         }
     }
 
-    //La classe rappresenta un arco, lancia una eccezione qualora fosse presente un arco con peso negativo.
-    private static class Arco {
-        final int sorgente;
-        final int destinazione;
-        final double peso;
+    /* Elenco dei link letti dal file, in array paralleli di primitivi che raddoppiano quando sono pieni (un link è
+    una terna sorgente, destinazione, peso). Lancia una eccezione qualora fosse presente un arco con peso negativo. */
+    private static final class ElencoArchi {
+        int[] sorgenti;
+        int[] destinazioni;
+        double[] pesi;
+        int numero;
+
+        ElencoArchi(int capacita) {
+            capacita = Math.max(capacita, 16);
+            sorgenti = new int[capacita];
+            destinazioni = new int[capacita];
+            pesi = new double[capacita];
+        }
 
-        Arco(int s, int d, double p) {
+        void aggiungi(int s, int d, double p) {
             if (p < 0.0) {
                 throw new IllegalArgumentException("Non è consentito l'uso di un grafo con arco con peso negativo");
             }
-            sorgente = s;
-            destinazione = d;
-            peso = p;
+            if (numero == sorgenti.length) {
+                int capacita = 2 * numero;
+                sorgenti = Arrays.copyOf(sorgenti, capacita);
+                destinazioni = Arrays.copyOf(destinazioni, capacita);
+                pesi = Arrays.copyOf(pesi, capacita);
+            }
+            sorgenti[numero] = s;
+            destinazioni[numero] = d;
+            pesi[numero] = p;
+            numero++;
         }
-    }
-
-    //Definisce un oggetto cammino con costo, nodi e archi
-    private static class Cammino {
-        double costo;
-        List<Integer> nodi;
-        Set<String> archi;
 
-        Cammino(double costo, List<Integer> nodi, Set<String> archi) {
-            this.costo = costo;
-            this.nodi = nodi;
-            this.archi = archi;
+        // Concatena gli elenchi nell'ordine dato, così gli identificativi seguono l'ordine del file.
+        static ElencoArchi concatena(List<ElencoArchi> parti) {
+            int totale = 0;
+            for (ElencoArchi parte : parti) {
+                totale += parte.numero;
+            }
+            ElencoArchi risultato = new ElencoArchi(totale);
+            for (ElencoArchi parte : parti) {
+                System.arraycopy(parte.sorgenti, 0, risultato.sorgenti, risultato.numero, parte.numero);
+                System.arraycopy(parte.destinazioni, 0, risultato.destinazioni, risultato.numero, parte.numero);
+                System.arraycopy(parte.pesi, 0, risultato.pesi, risultato.numero, parte.numero);
+                risultato.numero += parte.numero;
+            }
+            return risultato;
         }
     }
 
-    /* Legge il file in input e costruisce il grafo rappresentato, effettuando parsing sulla stringa.
-    Dalla stringa vengono estratti nodi e peso, per ogni coppia di nodi vengono inseriti due archi (uno per verso)
-    per rappresentare un grafo non orientato. Il for serve a preparare la lista di adiacenza che rappresenterà
-    il grafo, la struttura dati scelta è un vettore di linkedlist (per ogni indice è presente una lista contenente
-    tutti gli archi connessi a quel nodo). */
-    public static void costruisciGrafo(String nomeFile) {
-        try (Scanner sc = new Scanner(new FileReader(nomeFile))) {
-            n = Integer.parseInt(sc.nextLine().split("#")[0].trim());
-            m = Integer.parseInt(sc.nextLine().split("#")[0].trim());
+    /* Rappresentazione CSR del grafo non orientato: ogni link compare due volte, una per verso, e i due archi
+    condividono lo stesso identificativo (l'indice del link nel file), il cui primo estremo è salvato in estremiA
+    per distinguere i due versi. scalaPesi è il fattore che rende interi tutti i pesi (0 se non esiste).
+    Gli archi uscenti dal nodo u occupano le posizioni da offset[u] (incluso) a offset[u + 1] (escluso) degli array
+    destinazioni, pesi e idArchi.
+    Il grafo viene costruito una sola volta e non viene più modificato. */
+    static final class GrafoCSR {
+        final int numeroNodi;
+        final int numeroArchi;
+        final int[] offset;
+        final int[] destinazioni;
+        final double[] pesi;
+        final int[] idArchi;
+        final int[] estremiA;
+        // Per ogni link, il più piccolo identificativo fra i link con gli stessi estremi (sé stesso se non ha
+        // paralleli).
+        final int[] coppie;
+        final double scalaPesi;
+
+        /* Costruisce gli array con un ordinamento per conteggio: prima calcola il grado di ogni nodo, poi le somme
+        prefisse (offset) e infine colloca ogni arco nella sua posizione. Gli archi di ciascun nodo mantengono
+        l'ordine in cui compaiono nel file, lo stesso della vecchia lista di adiacenza. */
+        GrafoCSR(int numeroNodi, ElencoArchi archi) {
+            this.numeroNodi = numeroNodi;
+            this.numeroArchi = archi.numero;
+            this.offset = new int[numeroNodi + 1];
+            this.destinazioni = new int[2 * numeroArchi];
+            this.pesi = new double[2 * numeroArchi];
+            this.idArchi = new int[2 * numeroArchi];
+            this.estremiA = new int[numeroArchi];
+
+            for (int id = 0; id < numeroArchi; id++) {
+                int s = archi.sorgenti[id];
+                int d = archi.destinazioni[id];
+                if (s < 0 || s >= numeroNodi || d < 0 || d >= numeroNodi) {
+                    throw new IllegalArgumentException("Link fra nodi inesistenti: N" + s + " N" + d);
+                }
+                offset[s + 1]++;
+                offset[d + 1]++;
+            }
+            for (int i = 0; i < numeroNodi; i++) {
+                offset[i + 1] += offset[i];
+            }
 
-            listaAdiacenza = new Vector<>(n);
-            for (int i = 0; i < n; i++) {
-                listaAdiacenza.add(new LinkedList<>());
+            int[] prossimo = Arrays.copyOf(offset, numeroNodi);
+            for (int id = 0; id < numeroArchi; id++) {
+                int s = archi.sorgenti[id];
+                int d = archi.destinazioni[id];
+                estremiA[id] = s;
+                inserisci(prossimo, s, d, archi.pesi[id], id);
+                inserisci(prossimo, d, s, archi.pesi[id], id);
             }
+            coppie = calcolaCoppie();
+            scalaPesi = calcolaScala(pesi);
+        }
 
-            while (sc.hasNextLine()) {
-                String riga = sc.nextLine().trim();
+        // Copia del grafo che condivide la struttura e possiede un proprio array di pesi.
+        private GrafoCSR(GrafoCSR originale, double[] pesi) {
+            this.numeroNodi = originale.numeroNodi;
+            this.numeroArchi = originale.numeroArchi;
+            this.offset = originale.offset;
+            this.destinazioni = originale.destinazioni;
+            this.idArchi = originale.idArchi;
+            this.estremiA = originale.estremiA;
+            this.coppie = originale.coppie;
+            this.pesi = pesi;
+            this.scalaPesi = calcolaScala(pesi);
+        }
 
-                if (riga.isEmpty()) {
-                    continue;
+        /* Restituisce un nuovo grafo in cui i link indicati hanno il nuovo peso (infinito per un link guasto, che
+        dijkstra non riesce mai a rilassare); il grafo corrente non viene modificato, così chi lo sta usando in
+        un altro thread continua a vedere uno stato coerente. Costo O(m). */
+        GrafoCSR conPeso(int[] archi, double peso) {
+            if (peso < 0.0) {
+                throw new IllegalArgumentException("Non è consentito l'uso di un grafo con arco con peso negativo");
+            }
+            long[] modificati = new long[(numeroArchi + 63) >>> 6];
+            for (int idArco : archi) {
+                modificati[idArco >>> 6] |= 1L << idArco;
+            }
+            double[] nuoviPesi = pesi.clone();
+            for (int k = 0; k < nuoviPesi.length; k++) {
+                if ((modificati[idArchi[k] >>> 6] & (1L << idArchi[k])) != 0) {
+                    nuoviPesi[k] = peso;
                 }
+            }
+            return new GrafoCSR(this, nuoviPesi);
+        }
 
-                String[] parti = riga.split("\\(|\\)");
-                String[] nodi = parti[1].trim().split(" ");
-                double peso = Double.parseDouble(parti[2].trim());
+        // Identificativi dei link fra i nodi a e b (più di uno se il file contiene link paralleli).
+        int[] archiFra(int a, int b) {
+            if (a < 0 || a >= numeroNodi) {
+                return new int[0];
+            }
+            int[] archi = new int[offset[a + 1] - offset[a]];
+            int numero = 0;
+            for (int k = offset[a]; k < offset[a + 1]; k++) {
+                if (destinazioni[k] == b) {
+                    archi[numero++] = idArchi[k];
+                }
+            }
+            return Arrays.copyOf(archi, numero);
+        }
 
-                int s = Integer.parseInt(nodi[0].substring(1));
-                int d = Integer.parseInt(nodi[1].substring(1));
+        double peso(int idArco) {
+            int a = estremiA[idArco];
+            for (int k = offset[a]; k < offset[a + 1]; k++) {
+                if (idArchi[k] == idArco) {
+                    return pesi[k];
+                }
+            }
+            return Double.POSITIVE_INFINITY;
+        }
 
-                listaAdiacenza.get(s).add(new Arco(s, d, peso));
-                listaAdiacenza.get(d).add(new Arco(d, s, peso));
+        /* Il programma originale identificava un link con la stringa "u-v", quindi escludere un link escludeva anche
+        quelli paralleli: coppie conserva questo comportamento. Gli archi uscenti da u sono in ordine di
+        identificativo, per cui il primo arco verso v trovato scorrendoli è il link con identificativo minimo. */
+        private int[] calcolaCoppie() {
+            int[] risultato = new int[numeroArchi];
+            int[] primo = new int[numeroNodi];
+            Arrays.fill(primo, -1);
+            for (int u = 0; u < numeroNodi; u++) {
+                for (int k = offset[u]; k < offset[u + 1]; k++) {
+                    int v = destinazioni[k];
+                    if (primo[v] == -1) {
+                        primo[v] = idArchi[k];
+                    }
+                    risultato[idArchi[k]] = primo[v];
+                }
+                for (int k = offset[u]; k < offset[u + 1]; k++) {
+                    primo[destinazioni[k]] = -1;
+                }
             }
-        } catch (IOException e) {
-            System.out.println("Errore nella lettura del file: " + e.getMessage());
-            System.exit(1);
+            return risultato;
         }
-    }
 
-    /* Questo metodo implementa l'algoritmo Dijkstra con MinHeap per la ricerca dei cammini minimi; sfrutta le proprietà
-    di MinHeap per recuperare in tempo logaritmico il nodo con distanza minima.
-    Prima di iniziare la ricerca del cammino minimo inizializza distanze e padri e riempie la coda MinHeap con tutti i
-    nodi del grafo. Una volta effettuata l'estrazione del nodo con i metodi minimo ed eliminaMinimo, itera su tutti
-    gli archi connessi al nodo in esame (grazie alla lista di adiacenza) e per ogni arco crea un identificativo unico
-    utile a garantire cammini distinti; il peso dell'arco selezionato viene sommato al peso del resto del percorso e,
-    qualora fosse stata individuata una distanza minore, utilizza il metodo cambiaPriorità per correggere l'heap.
-    Il percorso viene ricostruito partendo dalla destinazione e risalendo i padri.*/
-    public static Cammino dijkstra(int sorgente, int destinazione, Set<String> archiEsclusi) {
-        double[] distanze = new double[n];
-        int[] padri = new int[n];
-        Arrays.fill(distanze, Double.POSITIVE_INFINITY);
-        Arrays.fill(padri, -1);
-        distanze[sorgente] = 0.0;
+        /* Restituisce la più piccola potenza di 10 (fino a 10^6) che, moltiplicata per ogni peso, dà un intero esatto,
+        oppure 0 se non esiste: è il fattore con cui HeapRadix converte le priorità in chiavi intere. I link guasti
+        (peso infinito) non vengono mai inseriti nella coda e sono ignorati. */
+        private static double calcolaScala(double[] pesi) {
+            for (double scala = 1; scala <= 1e6; scala *= 10) {
+                boolean intera = true;
+                for (double peso : pesi) {
+                    if (peso == Double.POSITIVE_INFINITY) {
+                        continue;
+                    }
+                    double scalato = peso * scala;
+                    if (scalato != Math.rint(scalato) || scalato > 1L << 52) {
+                        intera = false;
+                        break;
+                    }
+                }
+                if (intera) {
+                    return scala;
+                }
+            }
+            return 0;
+        }
 
-        MinHeap coda = new MinHeap(n);
-        for (int i = 0; i < n; i++) {
-            coda.inserisci(i, distanze[i]);
+        private void inserisci(int[] prossimo, int s, int d, double peso, int id) {
+            int k = prossimo[s]++;
+            destinazioni[k] = d;
+            pesi[k] = peso;
+            idArchi[k] = id;
         }
+    }
 
-        boolean[] visitati = new boolean[n];
+    /* Strutture di lavoro riutilizzate da dijkstra, una istanza per thread (vedi spazioLavoro).
+    Una distanza o un padre sono validi solo se epocaDistanze[v] coincide con l'epoca corrente, un nodo è visitato
+    solo se epocaVisitati[v] coincide con l'epoca corrente: iniziare una nuova ricerca costa quindi O(1) invece di O(n).
+    Il bitset archiEsclusi contiene un bit per ogni link e viene azzerato da trovaCamminiDistinti al termine di ogni
+    coppia, spegnendo soltanto i bit accesi; i link paralleli usano tutti il bit del primo (vedi GrafoCSR.coppie).
+    Per il motore Suurballe lo spazio contiene anche i potenziali dei nodi, lo stato del flusso di ogni link (0 nessun
+    flusso, 1 da estremiA verso l'altro estremo, 2 nel verso opposto), l'elenco dei link toccati, usato per
+    azzerare il flusso a fine coppia, e i due buffer in cui scomponiFlusso costruisce nodi e link di ogni cammino.
+    Il contatore ricerche conta le ricerche di dijkstra eseguite dal thread. */
+    static final class SpazioLavoro {
+        final double[] distanze;
+        final int[] padri;
+        final int[] archiPadri;
+        final int[] epocaDistanze;
+        final int[] epocaVisitati;
+        final long[] archiEsclusi;
+        final int[] coppie;
+        final CodaPriorita coda;
+        final TipoCoda tipoCoda;
+        final double scalaPesi;
+        final double[] potenziali;
+        final byte[] flusso;
+        final int[] archiToccati;
+        final int[] nodiPercorso;
+        final int[] archiPercorso;
+        int numeroToccati;
+        int epoca;
+        long ricerche;
 
-        while (!coda.vuoto()) {
-            int u = coda.minimo();
-            coda.eliminaMinimo();
+        SpazioLavoro(GrafoCSR grafo, TipoCoda tipoCoda) {
+            int numeroNodi = grafo.numeroNodi;
+            int numeroArchi = grafo.numeroArchi;
+            distanze = new double[numeroNodi];
+            padri = new int[numeroNodi];
+            archiPadri = new int[numeroNodi];
+            epocaDistanze = new int[numeroNodi];
+            epocaVisitati = new int[numeroNodi];
+            archiEsclusi = new long[(numeroArchi + 63) >>> 6];
+            coppie = grafo.coppie;
+            this.tipoCoda = tipoCoda;
+            this.scalaPesi = grafo.scalaPesi;
+            coda = tipoCoda.crea(grafo);
+            potenziali = new double[numeroNodi];
+            flusso = new byte[numeroArchi];
+            archiToccati = new int[numeroArchi];
+            nodiPercorso = new int[numeroArchi + 1];
+            archiPercorso = new int[numeroArchi];
+        }
 
-            if (visitati[u]) {
-                continue;
+        /* Inizia una nuova ricerca; quando il contatore sta per traboccare gli array delle epoche vengono azzerati,
+        evento che capita una volta ogni due miliardi di ricerche. */
+        void nuovaRicerca() {
+            ricerche++;
+            coda.svuota();
+            if (epoca == Integer.MAX_VALUE) {
+                Arrays.fill(epocaDistanze, 0);
+                Arrays.fill(epocaVisitati, 0);
+                epoca = 0;
             }
+            epoca++;
+        }
 
-            visitati[u] = true;
+        double distanza(int v) {
+            return epocaDistanze[v] == epoca ? distanze[v] : Double.POSITIVE_INFINITY;
+        }
 
-            if (u == destinazione) {
-                break;
+        boolean escluso(int idArco) {
+            int coppia = coppie[idArco];
+            return (archiEsclusi[coppia >>> 6] & (1L << coppia)) != 0;
+        }
+
+        void escludi(int[] archi) {
+            for (int idArco : archi) {
+                int coppia = coppie[idArco];
+                archiEsclusi[coppia >>> 6] |= 1L << coppia;
             }
+        }
 
-            for (Arco arco : listaAdiacenza.get(u)) {
-                int v = arco.destinazione;
-                String idArco = (u < v) ? u + "-" + v : v + "-" + u;
-                if (archiEsclusi.contains(idArco)) {
-                    continue;
-                }
-                double stima = distanze[u] + arco.peso;
-                if (stima < distanze[v]) {
-                    distanze[v] = stima;
-                    padri[v] = u;
-                    coda.cambiaPriorita(v, stima);
-                }
+        void includi(int[] archi) {
+            for (int idArco : archi) {
+                int coppia = coppie[idArco];
+                archiEsclusi[coppia >>> 6] &= ~(1L << coppia);
             }
         }
+    }
 
-        if (padri[destinazione] == -1) {
-            return null;
+    private static final ThreadLocal<SpazioLavoro> spaziLavoro = new ThreadLocal<>();
+
+    // Spazio di lavoro con la coda binaria, quella predefinita.
+    static SpazioLavoro spazioLavoro(GrafoCSR grafo) {
+        return spazioLavoro(grafo, TipoCoda.BINARIO);
+    }
+
+    /* Restituisce lo spazio di lavoro del thread corrente, creandolo alla prima chiamata o quando il grafo caricato
+    ha dimensioni diverse da quelle per cui era stato allocato (o è cambiato il tipo di coda richiesto dal chiamante,
+    oppure la scala dei pesi usata dalla coda radix dopo un aggiornamento del grafo). */
+    static SpazioLavoro spazioLavoro(GrafoCSR grafo, TipoCoda tipoCoda) {
+        SpazioLavoro spazio = spaziLavoro.get();
+        if (spazio == null || spazio.distanze.length != grafo.numeroNodi || spazio.coppie != grafo.coppie
+                || spazio.tipoCoda != tipoCoda || (tipoCoda == TipoCoda.RADIX && spazio.scalaPesi != grafo.scalaPesi)) {
+            spazio = new SpazioLavoro(grafo, tipoCoda);
+            spaziLavoro.set(spazio);
         }
+        return spazio;
+    }
 
-        LinkedList<Integer> nodiPercorso = new LinkedList<>();
-        Set<String> archiPercorso = new HashSet<>();
+    /* Metriche del calcolo (opzione --metriche): contatori delle ricerche di dijkstra (una ricerca bidirezionale
+    della gerarchia di contrazione conta come una ricerca), delle operazioni sulla coda e degli archi esaminati, più
+    due istogrammi per coppia, il numero di ricerche e la latenza. Ogni thread aggiorna la propria istanza senza
+    sincronizzazione, perché è l'unico a scriverla; i contatori sono volatile e gli istogrammi AtomicLongArray, così
+    il thread dell'esportazione periodica legge sempre valori pubblicati. L'esportazione somma le istanze di tutti i
+    thread, per cui una esportazione durante il calcolo può essere indietro di qualche ricerca.
+    Le ricerche contano le operazioni in variabili locali e le aggiungono una sola volta alla fine, e solo se le
+    metriche sono attive: da disattivate costano qualche incremento di registro per arco e nessun accesso a memoria
+    condivisa. La latenza usa un istogramma logaritmico con 8 intervalli per ogni potenza di due (errore relativo
+    massimo del 12,5%), così percentili e massimo non richiedono di conservare i singoli tempi. */
+    private static final class Metriche {
+        static volatile boolean attive;
+        static volatile double tempoLettura;
+        private static final int MASSIMO_RICERCHE = 64;
+        private static final int INTERVALLI_LATENZA = 488;
+        private static final Queue<Metriche> tutte = new ConcurrentLinkedQueue<>();
+        private static final ThreadLocal<Metriche> locali = ThreadLocal.withInitial(() -> {
+            Metriche metriche = new Metriche();
+            tutte.add(metriche);
+            return metriche;
+        });
 
-        int v = destinazione;
-        while (v != -1) {
-            nodiPercorso.addFirst(v);
-            int u = padri[v];
-            if (u != -1) {
-                String idArco = (u < v) ? u + "-" + v : v + "-" + u;
-                archiPercorso.add(idArco);
-            }
-            v = u;
+        // Scritti solo dal thread proprietario: gli incrementi non atomici non perdono aggiornamenti.
+        volatile long ricerche;
+        volatile long inserimenti;
+        volatile long estrazioni;
+        volatile long diminuzioni;
+        volatile long rilassamenti;
+        volatile long archiSaltati;
+        volatile long coppie;
+        // Ricerche di tutte le coppie, anche di quelle raccolte dall'ultimo intervallo dell'istogramma, che non le
+        // conta una per una.
+        volatile long sommaRicerchePerCoppia;
+        volatile long latenzaTotale;
+        volatile long latenzaMassima;
+        final AtomicLongArray ricerchePerCoppia = new AtomicLongArray(MASSIMO_RICERCHE + 1);
+        final AtomicLongArray latenze = new AtomicLongArray(INTERVALLI_LATENZA);
+
+        static Metriche locali() {
+            return locali.get();
         }
 
-        return new Cammino(distanze[destinazione], nodiPercorso, archiPercorso);
-    }
+        void ricerca(int inseriti, int estratti, int diminuiti, int rilassati, int saltati) {
+            ricerche++;
+            inserimenti += inseriti;
+            estrazioni += estratti;
+            diminuzioni += diminuiti;
+            rilassamenti += rilassati;
+            archiSaltati += saltati;
+        }
 
-    /* Calcola fino a 3 cammini distinti tra due nodi richiamando il metodo dijkstra.
-    Dopo aver trovato il primo cammino minimo, ne confronta il costo con quelli trovati successivamente, se esistono,
-    per garantire che le alternative trovate abbiano lo stesso costo minimo e siano dunque equivalenti; solo
-    i cammini con costo uguale al costo minimo del primo cammino vengono considerati validi e aggiunti alla lista 
-    cammini. Riempe la struttura archiUsati con gli archi del percorso valido trovato, per garantire cammini distinti. */
-    public static List<Cammino> trovaCamminiDistinti(int sorgente, int destinazione) {
-        List<Cammino> cammini = new ArrayList<>();
-        Set<String> archiUsati = new HashSet<>();
+        void coppia(long nanosecondi, long ricercheCoppia) {
+            coppie++;
+            sommaRicerchePerCoppia += ricercheCoppia;
+            incrementa(ricerchePerCoppia, (int) Math.min(ricercheCoppia, MASSIMO_RICERCHE), 1);
+            incrementa(latenze, intervallo(nanosecondi), 1);
+            latenzaTotale += nanosecondi;
+            latenzaMassima = Math.max(latenzaMassima, nanosecondi);
+        }
 
-        Cammino c1 = dijkstra(sorgente, destinazione, archiUsati);
-        if(c1 == null) {
-            return cammini;
+        // Incremento di un unico scrittore: lettura semplice e scrittura con rilascio, senza confronto e scambio.
+        private static void incrementa(AtomicLongArray istogramma, int i, long valore) {
+            istogramma.setRelease(i, istogramma.getPlain(i) + valore);
         }
-        double costoMinimo = c1.costo;
-        cammini.add(c1);
-        archiUsati.addAll(c1.archi);
 
-        for (int i = 1; i < 3; i++) {
-            Cammino c = dijkstra(sorgente, destinazione, archiUsati);
-            if (c == null || c.costo != costoMinimo) {
-                break;
+        // Intervallo dell'istogramma: i valori sotto 8 hanno un intervallo ciascuno, poi 8 per potenza di due.
+        static int intervallo(long valore) {
+            if (valore < 8) {
+                return (int) Math.max(valore, 0);
             }
-            cammini.add(c);
-            archiUsati.addAll(c.archi);
+            int esponente = 63 - Long.numberOfLeadingZeros(valore);
+            return (esponente - 2) * 8 + (int) ((valore >>> (esponente - 3)) & 7);
         }
 
-        return cammini;
-    }
+        static long inizioIntervallo(int intervallo) {
+            if (intervallo < 8) {
+                return intervallo;
+            }
+            int esponente = intervallo / 8 + 2;
+            return (8L + intervallo % 8) << (esponente - 3);
+        }
 
-    /* Stampa i cammini trovati tra un nodo sorgente e destinazione, scorrendo nella lista cammini costruita in
-    trovaCamminiDistinti, qualora la struttura fosse vuota, perchè non è stato trovato nessun cammino, lo segnala. */
-    public static void stampaRisultati(int sorgente, int destinazione, List<Cammino> cammini) {
-        if (cammini.isEmpty()) {
-            System.out.println("Nessun cammino da N" + sorgente + " a N" + destinazione);
-            return;
+        // Somma le istanze di tutti i thread in una nuova istanza.
+        static Metriche totale() {
+            Metriche totale = new Metriche();
+            for (Metriche m : tutte) {
+                totale.ricerche += m.ricerche;
+                totale.inserimenti += m.inserimenti;
+                totale.estrazioni += m.estrazioni;
+                totale.diminuzioni += m.diminuzioni;
+                totale.rilassamenti += m.rilassamenti;
+                totale.archiSaltati += m.archiSaltati;
+                totale.coppie += m.coppie;
+                totale.sommaRicerchePerCoppia += m.sommaRicerchePerCoppia;
+                totale.latenzaTotale += m.latenzaTotale;
+                totale.latenzaMassima = Math.max(totale.latenzaMassima, m.latenzaMassima);
+                for (int i = 0; i < totale.ricerchePerCoppia.length(); i++) {
+                    incrementa(totale.ricerchePerCoppia, i, m.ricerchePerCoppia.get(i));
+                }
+                for (int i = 0; i < totale.latenze.length(); i++) {
+                    incrementa(totale.latenze, i, m.latenze.get(i));
+                }
+            }
+            return totale;
+        }
+
+        // Percentile della latenza in nanosecondi (estremo superiore dell'intervallo, al più il massimo osservato).
+        long percentile(double quota) {
+            long soglia = (long) Math.ceil(quota * coppie);
+            long cumulato = 0;
+            for (int i = 0; i < latenze.length(); i++) {
+                cumulato += latenze.get(i);
+                if (cumulato >= soglia && cumulato > 0) {
+                    long fine = i + 1 < latenze.length() ? inizioIntervallo(i + 1) - 1 : Long.MAX_VALUE;
+                    return Math.min(fine, latenzaMassima);
+                }
+            }
+            return 0;
         }
 
-        System.out.println("Cammino da N" + sorgente + " a N" + destinazione);
+        static final double[] QUANTILI = {0.5, 0.9, 0.99, 0.999};
+        static final String[] NOMI_QUANTILI = {"p50", "p90", "p99", "p999"};
 
-        for (int i = 0; i < cammini.size(); i++) {
-            Cammino c = cammini.get(i);
-            System.out.println("Cammino " + (i+1) + ": " + c.nodi + ", costo: " + c.costo);
+        String json() {
+            StringBuilder testo = new StringBuilder("{");
+            testo.append("\"tempo_lettura_secondi\": ").append(tempoLettura);
+            testo.append(", \"coppie\": ").append(coppie);
+            testo.append(", \"ricerche_dijkstra\": ").append(ricerche);
+            testo.append(", \"ricerche_per_coppia\": {");
+            String separatore = "";
+            for (int i = 0; i < ricerchePerCoppia.length(); i++) {
+                if (ricerchePerCoppia.get(i) > 0) {
+                    testo.append(separatore).append('"').append(i).append(i == MASSIMO_RICERCHE ? "+" : "")
+                            .append("\": ").append(ricerchePerCoppia.get(i));
+                    separatore = ", ";
+                }
+            }
+            testo.append("}, \"coda\": {\"inserimenti\": ").append(inserimenti)
+                    .append(", \"estrazioni\": ").append(estrazioni)
+                    .append(", \"diminuzioni\": ").append(diminuzioni).append('}');
+            testo.append(", \"archi\": {\"rilassati\": ").append(rilassamenti)
+                    .append(", \"esclusi\": ").append(archiSaltati).append('}');
+            testo.append(", \"latenza_coppia_microsecondi\": {");
+            for (int i = 0; i < QUANTILI.length; i++) {
+                testo.append('"').append(NOMI_QUANTILI[i]).append("\": ").append(percentile(QUANTILI[i]) / 1000.0)
+                        .append(", ");
+            }
+            testo.append("\"media\": ").append(coppie == 0 ? 0.0 : latenzaTotale / 1000.0 / coppie)
+                    .append(", \"massima\": ").append(latenzaMassima / 1000.0).append("}}");
+            return testo.toString();
         }
-    }
 
-    /* Il main utilizza un doppio ciclo for annidato, per scorrere tutte le possibili coppie di nodi, per ogni
-    coppia richiama il metodo torvaCamminiDistinti. Calcola il tempo totale impiegato per ottenere la soluzione
-    tramite currentTimeMillis. */
-    public static void main(String[] args) {
-        Locale.setDefault(Locale.US);
+        String prometheus() {
+            StringBuilder testo = new StringBuilder();
+            metrica(testo, "esercizio3_tempo_lettura_secondi", "gauge", Double.toString(tempoLettura));
+            metrica(testo, "esercizio3_coppie_total", "counter", Long.toString(coppie));
+            metrica(testo, "esercizio3_ricerche_dijkstra_total", "counter", Long.toString(ricerche));
+            metrica(testo, "esercizio3_coda_inserimenti_total", "counter", Long.toString(inserimenti));
+            metrica(testo, "esercizio3_coda_estrazioni_total", "counter", Long.toString(estrazioni));
+            metrica(testo, "esercizio3_coda_diminuzioni_total", "counter", Long.toString(diminuzioni));
+            metrica(testo, "esercizio3_archi_rilassati_total", "counter", Long.toString(rilassamenti));
+            metrica(testo, "esercizio3_archi_esclusi_total", "counter", Long.toString(archiSaltati));
 
-        if (args.length != 1) {
-            System.out.println("Parametro mancante\nEsempio: java Esercizio1 <nome_file>");
-            return;
+            // Tutti gli intervalli cumulativi, anche quelli vuoti: l'insieme dei valori di le resta fisso fra le
+            // esportazioni.
+            testo.append("# TYPE esercizio3_ricerche_per_coppia histogram\n");
+            long cumulato = 0;
+            for (int i = 0; i < MASSIMO_RICERCHE; i++) {
+                cumulato += ricerchePerCoppia.get(i);
+                testo.append("esercizio3_ricerche_per_coppia_bucket{le=\"").append(i).append("\"} ")
+                        .append(cumulato).append('\n');
+            }
+            testo.append("esercizio3_ricerche_per_coppia_bucket{le=\"+Inf\"} ").append(coppie).append('\n');
+            testo.append("esercizio3_ricerche_per_coppia_sum ").append(sommaRicerchePerCoppia).append('\n');
+            testo.append("esercizio3_ricerche_per_coppia_count ").append(coppie).append('\n');
+
+            testo.append("# TYPE esercizio3_latenza_coppia_secondi summary\n");
+            for (double quota : QUANTILI) {
+                testo.append("esercizio3_latenza_coppia_secondi{quantile=\"").append(quota).append("\"} ")
+                        .append(percentile(quota) / 1e9).append('\n');
+            }
+            testo.append("esercizio3_latenza_coppia_secondi_sum ").append(latenzaTotale / 1e9).append('\n');
+            testo.append("esercizio3_latenza_coppia_secondi_count ").append(coppie).append('\n');
+            return testo.toString();
         }
 
-        long inizioTempo = System.currentTimeMillis();
+        private static void metrica(StringBuilder testo, String nome, String tipo, String valore) {
+            testo.append("# TYPE ").append(nome).append(' ').append(tipo).append('\n');
+            testo.append(nome).append(' ').append(valore).append('\n');
+        }
 
-        costruisciGrafo(args[0]);
+        // Scrive le metriche correnti sullo standard error nel formato scelto.
+        static void esporta(FormatoMetriche formato) {
+            Metriche totale = totale();
+            if (formato == FormatoMetriche.JSON) {
+                System.err.println(totale.json());
+            } else {
+                System.err.print(totale.prometheus());
+            }
+        }
 
-        for (int s = 0; s < n; s++) {
-            for (int d = 0; d < n; d++) {
-                if (s != d) {
-                    List<Cammino> cammini = trovaCamminiDistinti(s, d);
-                    stampaRisultati(s, d, cammini);
+        /* Esportazione periodica su un thread demone, che termina insieme al programma. */
+        static ScheduledExecutorService esportaOgni(FormatoMetriche formato, int secondi) {
+            ScheduledExecutorService esecutore = Executors.newSingleThreadScheduledExecutor(compito -> {
+                Thread thread = new Thread(compito, "metriche");
+                thread.setDaemon(true);
+                return thread;
+            });
+            esecutore.scheduleAtFixedRate(() -> esporta(formato), secondi, secondi, TimeUnit.SECONDS);
+            return esecutore;
+        }
+    }
+
+    // Formati di esportazione selezionabili con l'opzione --metriche.
+    private enum FormatoMetriche {
+        JSON, PROMETHEUS;
+
+        static FormatoMetriche daNome(String nome) {
+            for (FormatoMetriche formato : values()) {
+                if (formato.name().equalsIgnoreCase(nome)) {
+                    return formato;
                 }
             }
+            throw new IllegalArgumentException("Formato delle metriche non valido: " + nome);
         }
+    }
 
-        long fineTempo = System.currentTimeMillis();
-        double tempoTotale = (fineTempo - inizioTempo) / 1000.0;
-        System.out.println("Tempo totale: " + tempoTotale + " secondi" );
+    //Definisce un oggetto cammino con costo, nodi e identificativi degli archi attraversati (un arco in meno dei nodi)
+    static class Cammino {
+        double costo;
+        int[] nodi;
+        int[] archi;
+
+        Cammino(double costo, int[] nodi, int[] archi) {
+            this.costo = costo;
+            this.nodi = nodi;
+            this.archi = archi;
+        }
+    }
+
+    /* Archivio compatto dei cammini di molte coppie, per conservare in memoria i risultati di una riga o di tutte le
+    coppie. I nodi di tutti i cammini stanno uno dopo l'altro nell'array nodi e i link nell'array archi: il cammino c
+    occupa nodi[inizio[c] .. inizio[c + 1]) e, avendo un link in meno dei nodi, archi[inizio[c] - c .. inizio[c + 1]
+    - c - 1), per cui basta un solo array di posizioni. Ogni coppia (gruppo, per esempio la destinazione di una
+    riga) ricorda il proprio primo cammino e il numero di cammini, sempre contigui.
+    Registrare di nuovo un gruppo aggiunge i nuovi cammini in coda e lascia inutilizzati quelli vecchi, come libera()
+    con i cammini di un gruppo che non serve più; quando questi superano la metà dell'archivio, compatta() li elimina,
+    per un costo ammortizzato O(1) per nodo registrato.
+    Rispetto a una lista di oggetti Cammino l'archivio occupa 8 byte per nodo (nodo e link) più 12 per cammino e 8
+    per gruppo. I metodi di lettura (numeroCammini, cammino, costo, lunghezza, nodo, arco, stampa, disgiunti) sono
+    una vista che non crea oggetti; cammini(gruppo) ricrea gli oggetti Cammino quando servono. */
+    private static final class ArchivioCammini {
+        private int[] nodi = new int[64];
+        private int[] archi = new int[64];
+        private int[] inizio = new int[16];
+        private double[] costi = new double[16];
+        private int numeroCammini;
+        private int camminiInutilizzati;
+        private final int[] primo;
+        private final int[] numero;
+
+        ArchivioCammini(int numeroGruppi) {
+            primo = new int[numeroGruppi];
+            numero = new int[numeroGruppi];
+            Arrays.fill(primo, -1);
+        }
+
+        // Registra (o sostituisce) i cammini di un gruppo.
+        void registra(int gruppo, List<Cammino> cammini) {
+            if (primo[gruppo] != -1) {
+                camminiInutilizzati += numero[gruppo];
+            }
+            primo[gruppo] = numeroCammini;
+            numero[gruppo] = cammini.size();
+            for (Cammino c : cammini) {
+                aggiungi(c.costo, c.nodi, 0, c.nodi.length, c.archi, 0);
+            }
+            compattaSeServe();
+        }
+
+        // Elimina i cammini di un gruppo che non serve più, che da qui in poi risulta assente.
+        void libera(int gruppo) {
+            if (primo[gruppo] == -1) {
+                return;
+            }
+            camminiInutilizzati += numero[gruppo];
+            primo[gruppo] = -1;
+            numero[gruppo] = 0;
+            compattaSeServe();
+        }
+
+        // Vero se nessun gruppo ha ancora cammini registrati.
+        boolean vuoto() {
+            return numeroCammini == camminiInutilizzati;
+        }
+
+        private void compattaSeServe() {
+            if (camminiInutilizzati > numeroCammini / 2 && camminiInutilizzati > 1024) {
+                compatta();
+            }
+        }
+
+        private void aggiungi(double costo, int[] nodiCammino, int da, int a, int[] archiCammino, int daArchi) {
+            int lunghezza = a - da;
+            int fine = inizio[numeroCammini] + lunghezza;
+            if (numeroCammini + 1 == inizio.length) {
+                inizio = Arrays.copyOf(inizio, 2 * inizio.length);
+                costi = Arrays.copyOf(costi, 2 * costi.length);
+            }
+            if (fine > nodi.length) {
+                int capacita = Math.max(fine, 2 * nodi.length);
+                nodi = Arrays.copyOf(nodi, capacita);
+                archi = Arrays.copyOf(archi, capacita);
+            }
+            int posizione = inizio[numeroCammini];
+            System.arraycopy(nodiCammino, da, nodi, posizione, lunghezza);
+            System.arraycopy(archiCammino, daArchi, archi, posizione - numeroCammini, lunghezza - 1);
+            costi[numeroCammini] = costo;
+            inizio[++numeroCammini] = fine;
+        }
+
+        /* Ricopia in un nuovo archivio solo i cammini ancora referenziati, nell'ordine dei gruppi. */
+        void compatta() {
+            int[] vecchiNodi = nodi;
+            int[] vecchiArchi = archi;
+            int[] vecchioInizio = inizio;
+            double[] vecchiCosti = costi;
+            int attivi = numeroCammini - camminiInutilizzati;
+            int nodiAttivi = 0;
+            for (int g = 0; g < primo.length; g++) {
+                if (primo[g] != -1 && numero[g] > 0) {
+                    nodiAttivi += vecchioInizio[primo[g] + numero[g]] - vecchioInizio[primo[g]];
+                }
+            }
+            nodi = new int[Math.max(nodiAttivi, 16)];
+            archi = new int[Math.max(nodiAttivi, 16)];
+            inizio = new int[attivi + 2];
+            costi = new double[attivi + 2];
+            numeroCammini = 0;
+            camminiInutilizzati = 0;
+            for (int g = 0; g < primo.length; g++) {
+                if (primo[g] == -1) {
+                    continue;
+                }
+                int vecchioPrimo = primo[g];
+                primo[g] = numeroCammini;
+                for (int c = vecchioPrimo; c < vecchioPrimo + numero[g]; c++) {
+                    aggiungi(vecchiCosti[c], vecchiNodi, vecchioInizio[c], vecchioInizio[c + 1], vecchiArchi,
+                            vecchioInizio[c] - c);
+                }
+            }
+        }
+
+        boolean presente(int gruppo) {
+            return primo[gruppo] != -1;
+        }
+
+        int numeroCammini(int gruppo) {
+            return numero[gruppo];
+        }
+
+        // Indice nell'archivio dell'i-esimo cammino del gruppo.
+        int cammino(int gruppo, int i) {
+            return primo[gruppo] + i;
+        }
+
+        double costo(int c) {
+            return costi[c];
+        }
+
+        // Numero di nodi del cammino c.
+        int lunghezza(int c) {
+            return inizio[c + 1] - inizio[c];
+        }
+
+        int nodo(int c, int i) {
+            return nodi[inizio[c] + i];
+        }
+
+        int arco(int c, int i) {
+            return archi[inizio[c] - c + i];
+        }
+
+        // Costo del primo cammino del gruppo, oppure infinito se la coppia non ha cammini.
+        double costoMinimo(int gruppo) {
+            return numero[gruppo] == 0 ? Double.POSITIVE_INFINITY : costi[primo[gruppo]];
+        }
+
+        // Indica se almeno un cammino del gruppo attraversa uno dei link indicati.
+        boolean usaArchi(int gruppo, int[] archiCercati) {
+            if (numero[gruppo] == 0) {
+                return false;
+            }
+            int da = inizio[primo[gruppo]] - primo[gruppo];
+            int a = inizio[primo[gruppo] + numero[gruppo]] - primo[gruppo] - numero[gruppo];
+            for (int i = da; i < a; i++) {
+                for (int idArco : archiCercati) {
+                    if (archi[i] == idArco) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /* Verifica che i cammini del gruppo non abbiano link in comune: i link di tutti i cammini vengono copiati e
+        ordinati, e due cammini si sovrappongono solo se compare un identificativo ripetuto (ogni cammino minimo
+        attraversa un link al più una volta). Costo O(L log L), con L link complessivi del gruppo. */
+        boolean disgiunti(int gruppo) {
+            if (numero[gruppo] < 2) {
+                return true;
+            }
+            int da = inizio[primo[gruppo]] - primo[gruppo];
+            int a = inizio[primo[gruppo] + numero[gruppo]] - primo[gruppo] - numero[gruppo];
+            int[] ordinati = Arrays.copyOfRange(archi, da, a);
+            Arrays.sort(ordinati);
+            for (int i = 1; i < ordinati.length; i++) {
+                if (ordinati[i] == ordinati[i - 1]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Stampa il gruppo nel formato di stampaRisultati, leggendo direttamente dagli array dell'archivio.
+        void stampa(int sorgente, int destinazione, int gruppo, Writer uscita) throws IOException {
+            stampaIntestazione(sorgente, destinazione, numero[gruppo], uscita);
+            for (int i = 0; i < numero[gruppo]; i++) {
+                int c = primo[gruppo] + i;
+                stampaCammino(i + 1, costi[c], nodi, inizio[c], inizio[c + 1], uscita);
+            }
+        }
+
+        Cammino camminoCompleto(int c) {
+            return new Cammino(costi[c], Arrays.copyOfRange(nodi, inizio[c], inizio[c + 1]),
+                    Arrays.copyOfRange(archi, inizio[c] - c, inizio[c + 1] - c - 1));
+        }
+
+        List<Cammino> cammini(int gruppo) {
+            List<Cammino> cammini = new ArrayList<>(numero[gruppo]);
+            for (int i = 0; i < numero[gruppo]; i++) {
+                cammini.add(camminoCompleto(primo[gruppo] + i));
+            }
+            return cammini;
+        }
+    }
+
+    /* Lettore della topologia su file mappato in memoria. Il file non viene mai convertito in String: i byte
+    vengono letti direttamente dal MappedByteBuffer e nodi e pesi finiscono subito negli array di un ElencoArchi.
+    L'intestazione è composta dalle prime due righe (n e m), ciascuna eventualmente seguita da un commento
+    introdotto da #; ogni riga successiva non vuota ha la forma "Lx_y ( Ni Nj ) peso ( ... )" e di essa servono solo
+    i due nodi e il peso, il resto della riga viene saltato.
+    I file più grandi di FINESTRA vengono mappati a finestre che terminano sempre a fine riga. Con più thread la
+    parte dei link viene divisa in intervalli, anch'essi allineati a fine riga, letti in parallelo e poi concatenati
+    nell'ordine del file. */
+    private static final class LettoreTopologia {
+        private static final long FINESTRA = 1L << 30;
+        private static final int DIMENSIONE_INTESTAZIONE = 1 << 20;
+        private static final double[] POTENZE_DI_DIECI = new double[23];
+
+        static {
+            POTENZE_DI_DIECI[0] = 1;
+            for (int i = 1; i < POTENZE_DI_DIECI.length; i++) {
+                POTENZE_DI_DIECI[i] = POTENZE_DI_DIECI[i - 1] * 10;
+            }
+        }
+
+        private MappedByteBuffer buffer;
+        private long base;
+        private int i;
+        private int limite;
+
+        static GrafoCSR leggi(String nomeFile, int thread) throws IOException {
+            try (FileChannel canale = FileChannel.open(Paths.get(nomeFile), StandardOpenOption.READ)) {
+                long dimensione = canale.size();
+                LettoreTopologia intestazione = new LettoreTopologia();
+                intestazione.mappa(canale, 0, Math.min(dimensione, DIMENSIONE_INTESTAZIONE));
+                int n = intestazione.interoIntestazione();
+                int m = intestazione.interoIntestazione();
+                long inizio = intestazione.i;
+
+                long[] confini = new long[thread + 1];
+                confini[0] = inizio;
+                confini[thread] = dimensione;
+                for (int t = 1; t < thread; t++) {
+                    long candidato = Math.max(inizio + (dimensione - inizio) * t / thread, confini[t - 1]);
+                    confini[t] = inizioRigaSuccessiva(canale, candidato, dimensione);
+                }
+
+                if (thread == 1) {
+                    ElencoArchi archi = new ElencoArchi(m);
+                    new LettoreTopologia().leggiIntervallo(canale, inizio, dimensione, archi);
+                    return new GrafoCSR(n, archi);
+                }
+
+                ForkJoinPool pool = new ForkJoinPool(thread);
+                try {
+                    List<ForkJoinTask<ElencoArchi>> parti = new ArrayList<>();
+                    for (int t = 0; t < thread; t++) {
+                        final long da = confini[t];
+                        final long a = confini[t + 1];
+                        parti.add(pool.submit(() -> {
+                            ElencoArchi parte = new ElencoArchi((int) Math.min((a - da) / 32, Integer.MAX_VALUE - 8));
+                            new LettoreTopologia().leggiIntervallo(canale, da, a, parte);
+                            return parte;
+                        }));
+                    }
+                    List<ElencoArchi> elenchi = new ArrayList<>();
+                    for (ForkJoinTask<ElencoArchi> parte : parti) {
+                        elenchi.add(parte.join());
+                    }
+                    return new GrafoCSR(n, ElencoArchi.concatena(elenchi));
+                } catch (RuntimeException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw e;
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+
+        // Restituisce la posizione successiva al primo '\n' che si trova da posizione in poi (o la fine del file).
+        private static long inizioRigaSuccessiva(FileChannel canale, long posizione, long dimensione)
+                throws IOException {
+            while (posizione < dimensione) {
+                long lunghezza = Math.min(1 << 16, dimensione - posizione);
+                MappedByteBuffer blocco = canale.map(FileChannel.MapMode.READ_ONLY, posizione, lunghezza);
+                for (int k = 0; k < lunghezza; k++) {
+                    if (blocco.get(k) == '\n') {
+                        return posizione + k + 1;
+                    }
+                }
+                posizione += lunghezza;
+            }
+            return dimensione;
+        }
+
+        private void mappa(FileChannel canale, long da, long lunghezza) throws IOException {
+            buffer = canale.map(FileChannel.MapMode.READ_ONLY, da, lunghezza);
+            base = da;
+            i = 0;
+            limite = (int) lunghezza;
+        }
+
+        /* Legge i link fra le posizioni inizio e fine (entrambe a inizio riga), una finestra alla volta: ogni finestra
+        viene accorciata fino all'ultimo '\n', così nessuna riga resta divisa fra due finestre. */
+        private void leggiIntervallo(FileChannel canale, long inizio, long fine, ElencoArchi archi) throws IOException {
+            long posizione = inizio;
+            while (posizione < fine) {
+                mappa(canale, posizione, Math.min(FINESTRA, fine - posizione));
+                if (posizione + limite < fine) {
+                    int ultimo = limite - 1;
+                    while (ultimo >= 0 && buffer.get(ultimo) != '\n') {
+                        ultimo--;
+                    }
+                    if (ultimo < 0) {
+                        throw new IOException("riga troppo lunga alla posizione " + posizione);
+                    }
+                    limite = ultimo + 1;
+                }
+                leggiRighe(archi);
+                posizione += limite;
+            }
+        }
+
+        private void leggiRighe(ElencoArchi archi) throws IOException {
+            while (i < limite) {
+                byte c = buffer.get(i);
+                if (c == '\n' || c == '\r' || c == ' ' || c == '\t') {
+                    i++;
+                    continue;
+                }
+                while (i < limite && buffer.get(i) != '(' && buffer.get(i) != '\n') {
+                    i++;
+                }
+                atteso('(');
+                int s = nodo();
+                int d = nodo();
+                saltaSpazi();
+                atteso(')');
+                saltaSpazi();
+                archi.aggiungi(s, d, numero());
+                while (i < limite && buffer.get(i) != '\n') {
+                    i++;
+                }
+            }
+        }
+
+        // Legge l'intero all'inizio della riga corrente e salta il resto della riga (commento compreso).
+        private int interoIntestazione() throws IOException {
+            saltaSpazi();
+            int valore = intero();
+            while (i < limite && buffer.get(i) != '\n') {
+                i++;
+            }
+            i++;
+            return valore;
+        }
+
+        // Un nodo è una lettera (N) seguita dal suo numero.
+        private int nodo() throws IOException {
+            saltaSpazi();
+            if (i < limite && Character.isLetter(buffer.get(i))) {
+                i++;
+            }
+            return intero();
+        }
+
+        private int intero() throws IOException {
+            int inizio = i;
+            long valore = 0;
+            while (i < limite && buffer.get(i) >= '0' && buffer.get(i) <= '9') {
+                valore = valore * 10 + (buffer.get(i++) - '0');
+                if (valore > Integer.MAX_VALUE) {
+                    throw errore("numero troppo grande");
+                }
+            }
+            if (i == inizio) {
+                throw errore("numero atteso");
+            }
+            return (int) valore;
+        }
+
+        /* Legge un numero decimale. Senza esponente, con mantissa (le cifre senza il punto) minore di 2^53 e al
+        massimo 22 decimali, sia la mantissa sia 10^decimali sono double esatti: il valore è allora una sola
+        divisione, arrotondata una volta sola come farebbe Double.parseDouble. Oltre 2^53 la conversione della
+        mantissa arrotonderebbe già una prima volta, quindi negli altri casi (rari) il numero viene passato a
+        Double.parseDouble. */
+        private double numero() throws IOException {
+            int inizio = i;
+            boolean negativo = i < limite && buffer.get(i) == '-';
+            if (negativo || (i < limite && buffer.get(i) == '+')) {
+                i++;
+            }
+            long mantissa = 0;
+            int cifre = 0;
+            int decimali = 0;
+            boolean punto = false;
+            while (i < limite) {
+                byte c = buffer.get(i);
+                if (c >= '0' && c <= '9') {
+                    if (cifre < 18) {
+                        mantissa = mantissa * 10 + (c - '0');
+                        if (mantissa != 0) {
+                            cifre++;
+                        }
+                        if (punto) {
+                            decimali++;
+                        }
+                    } else {
+                        cifre++;
+                    }
+                } else if (c == '.' && !punto) {
+                    punto = true;
+                } else {
+                    break;
+                }
+                i++;
+            }
+            boolean esponente = i < limite && (buffer.get(i) == 'e' || buffer.get(i) == 'E');
+            if (esponente || cifre > 18 || mantissa >= 1L << 53 || decimali >= POTENZE_DI_DIECI.length) {
+                while (i < limite && !Character.isWhitespace(buffer.get(i)) && buffer.get(i) != '(') {
+                    i++;
+                }
+                byte[] testo = new byte[i - inizio];
+                buffer.get(inizio, testo);
+                try {
+                    return Double.parseDouble(new String(testo, java.nio.charset.StandardCharsets.US_ASCII));
+                } catch (NumberFormatException e) {
+                    throw errore("peso non valido");
+                }
+            }
+            if (i == inizio + (negativo ? 1 : 0)) {
+                throw errore("peso atteso");
+            }
+            double valore = mantissa / POTENZE_DI_DIECI[decimali];
+            return negativo ? -valore : valore;
+        }
+
+        private void saltaSpazi() {
+            while (i < limite && (buffer.get(i) == ' ' || buffer.get(i) == '\t' || buffer.get(i) == '\r')) {
+                i++;
+            }
+        }
+
+        private void atteso(char carattere) throws IOException {
+            if (i >= limite || buffer.get(i) != carattere) {
+                throw errore("atteso '" + carattere + "'");
+            }
+            i++;
+        }
+
+        private IOException errore(String messaggio) {
+            return new IOException("formato non valido alla posizione " + (base + i) + ": " + messaggio);
+        }
+    }
+
+    /* Legge il file in input e costruisce il grafo rappresentato tramite LettoreTopologia, che estrae nodi e peso
+    di ogni link direttamente dal file mappato in memoria; terminata la lettura, viene costruito il grafo CSR che
+    inserisce i due archi (uno per verso) per rappresentare un grafo non orientato. Il grafo restituito è
+    immutabile e può essere condiviso fra più thread. */
+    public static GrafoCSR costruisciGrafo(String nomeFile) {
+        return costruisciGrafo(nomeFile, 1);
+    }
+
+    // Come costruisciGrafo, ma legge i link con il numero di thread indicato.
+    public static GrafoCSR costruisciGrafo(String nomeFile, int thread) {
+        try {
+            return LettoreTopologia.leggi(nomeFile, thread);
+        } catch (IOException e) {
+            System.out.println("Errore nella lettura del file: " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /* Questo metodo implementa l'algoritmo Dijkstra con MinHeap per la ricerca dei cammini minimi; sfrutta le proprietà
+    di MinHeap per recuperare in tempo logaritmico il nodo con distanza minima.
+    Tutte le strutture di lavoro provengono dallo SpazioLavoro del thread: all'inizio viene aperta una nuova epoca e
+    la coda viene preparata da avvia (contiene solo la sorgente, oppure tutti i nodi con MinHeap come nella versione
+    originale); quando il minimo estratto non è mai stato raggiunto la ricerca termina, perché i nodi rimasti sono
+    irraggiungibili. Una volta effettuata l'estrazione del nodo con i metodi minimo ed
+    eliminaMinimo, itera su tutti gli archi connessi al nodo in esame (l'intervallo contiguo del grafo CSR) e salta
+    quelli il cui identificativo è attivo nel bitset archiEsclusi, per garantire cammini distinti; il peso dell'arco
+    selezionato viene sommato al peso del resto del percorso e, qualora fosse stata individuata una distanza minore,
+    inserisce il nodo oppure utilizza il metodo cambiaPriorità per correggere l'heap. Durante la ricerca non viene
+    allocato alcun oggetto.
+    Il percorso viene ricostruito partendo dalla destinazione e risalendo i padri.*/
+    public static Cammino dijkstra(GrafoCSR grafo, int sorgente, int destinazione, SpazioLavoro spazio) {
+        esplora(grafo, sorgente, destinazione, spazio);
+        return ricostruisciCammino(sorgente, destinazione, spazio);
+    }
+
+    /* Ricerca vera e propria di dijkstra, che lascia distanze e padri nello spazio di lavoro. Con destinazione
+    uguale a -1 non c'è uscita anticipata e la ricerca calcola l'intero albero dei cammini minimi dalla sorgente. */
+    private static void esplora(GrafoCSR grafo, int sorgente, int destinazione, SpazioLavoro spazio) {
+        spazio.nuovaRicerca();
+        final int epoca = spazio.epoca;
+        final double[] distanze = spazio.distanze;
+        final int[] padri = spazio.padri;
+        final int[] archiPadri = spazio.archiPadri;
+        final int[] epocaDistanze = spazio.epocaDistanze;
+        final int[] epocaVisitati = spazio.epocaVisitati;
+        final CodaPriorita coda = spazio.coda;
+        int estratti = 0, diminuiti = 0, rilassati = 0, saltati = 0;
+
+        distanze[sorgente] = 0.0;
+        padri[sorgente] = -1;
+        epocaDistanze[sorgente] = epoca;
+        int inseriti = coda.avvia(sorgente);
+
+        while (!coda.vuoto()) {
+            int u = coda.minimo();
+            coda.eliminaMinimo();
+            estratti++;
+
+            // I nodi rimasti non sono raggiungibili (sono in coda solo con MinHeap, riempito da avvia).
+            if (epocaDistanze[u] != epoca) {
+                break;
+            }
+            if (epocaVisitati[u] == epoca) {
+                continue;
+            }
+
+            epocaVisitati[u] = epoca;
+
+            if (u == destinazione) {
+                break;
+            }
+
+            for (int k = grafo.offset[u]; k < grafo.offset[u + 1]; k++) {
+                int idArco = grafo.idArchi[k];
+                if (spazio.escluso(idArco)) {
+                    saltati++;
+                    continue;
+                }
+                rilassati++;
+                int v = grafo.destinazioni[k];
+                double stima = distanze[u] + grafo.pesi[k];
+                if (stima < spazio.distanza(v)) {
+                    distanze[v] = stima;
+                    padri[v] = u;
+                    archiPadri[v] = idArco;
+                    epocaDistanze[v] = epoca;
+                    if (coda.contiene(v)) {
+                        coda.cambiaPriorita(v, stima);
+                        diminuiti++;
+                    } else {
+                        coda.inserisci(v, stima);
+                        inseriti++;
+                    }
+                }
+            }
+        }
+
+        if (Metriche.attive) {
+            Metriche.locali().ricerca(inseriti, estratti, diminuiti, rilassati, saltati);
+        }
+    }
+
+    /* Ricostruisce il cammino verso la destinazione risalendo i padri lasciati dall'ultima ricerca; restituisce null
+    se la destinazione non è stata raggiunta. */
+    private static Cammino ricostruisciCammino(int sorgente, int destinazione, SpazioLavoro spazio) {
+        final int[] padri = spazio.padri;
+        final int[] archiPadri = spazio.archiPadri;
+        if (spazio.epocaVisitati[destinazione] != spazio.epoca || destinazione == sorgente) {
+            return null;
+        }
+
+        int lunghezza = 0;
+        for (int v = destinazione; v != -1; v = padri[v]) {
+            lunghezza++;
+        }
+
+        int[] nodiPercorso = new int[lunghezza];
+        int[] archiPercorso = new int[lunghezza - 1];
+
+        int v = destinazione;
+        int i = lunghezza - 1;
+        while (v != -1) {
+            nodiPercorso[i] = v;
+            if (padri[v] != -1) {
+                archiPercorso[i - 1] = archiPadri[v];
+            }
+            i--;
+            v = padri[v];
+        }
+
+        return new Cammino(spazio.distanze[destinazione], nodiPercorso, archiPercorso);
+    }
+
+    /* Calcola fino a 3 cammini distinti tra due nodi richiamando il metodo dijkstra.
+    Dopo aver trovato il primo cammino minimo, ne confronta il costo con quelli trovati successivamente, se esistono,
+    per garantire che le alternative trovate abbiano lo stesso costo minimo e siano dunque equivalenti; solo
+    i cammini con costo uguale al costo minimo del primo cammino vengono considerati validi e aggiunti alla lista 
+    cammini. Accende nel bitset archiEsclusi gli archi del percorso valido trovato, per garantire cammini distinti,
+    e li spegne prima di terminare così che lo spazio di lavoro sia pronto per la coppia successiva. */
+    public static List<Cammino> trovaCamminiDistinti(GrafoCSR grafo, int sorgente, int destinazione) {
+        return trovaCamminiDistinti(grafo, sorgente, destinazione, NUMERO_CAMMINI);
+    }
+
+    /* Come trovaCamminiDistinti, ma con un numero massimo di cammini k scelto dal chiamante. */
+    public static List<Cammino> trovaCamminiDistinti(GrafoCSR grafo, int sorgente, int destinazione, int k) {
+        return trovaCamminiDistinti(grafo, sorgente, destinazione, k, TipoCoda.BINARIO);
+    }
+
+    // Come sopra, con il tipo di coda di priorità scelto con --coda.
+    static List<Cammino> trovaCamminiDistinti(GrafoCSR grafo, int sorgente, int destinazione, int k, TipoCoda coda) {
+        SpazioLavoro spazio = spazioLavoro(grafo, coda);
+        Cammino c1 = dijkstra(grafo, sorgente, destinazione, spazio);
+        return completaCammini(grafo, sorgente, destinazione, c1, k, spazio);
+    }
+
+    /* Seconda parte di trovaCamminiDistinti: dato il primo cammino minimo (già calcolato) cerca le alternative
+    disgiunte dello stesso costo. */
+    private static List<Cammino> completaCammini(GrafoCSR grafo, int sorgente, int destinazione, Cammino c1, int k,
+                                                 SpazioLavoro spazio) {
+        List<Cammino> cammini = new ArrayList<>();
+        if(c1 == null) {
+            return cammini;
+        }
+        double costoMinimo = c1.costo;
+        cammini.add(c1);
+        spazio.escludi(c1.archi);
+
+        for (int i = 1; i < k; i++) {
+            Cammino c = dijkstra(grafo, sorgente, destinazione, spazio);
+            if (c == null || c.costo != costoMinimo) {
+                break;
+            }
+            cammini.add(c);
+            spazio.escludi(c.archi);
+        }
+
+        for (Cammino c : cammini) {
+            spazio.includi(c.archi);
+        }
+
+        return cammini;
+    }
+
+    /* Motore alternativo basato sull'algoritmo di Suurballe/Bhandari: invece di rimuovere gli archi dei cammini già
+    trovati, ogni cammino viene inviato come un'unità di flusso e le ricerche successive avvengono sul grafo residuo,
+    dove un arco già usato può essere percorso all'indietro con peso negativo per "annullare" una scelta precedente.
+    In questo modo vengono trovati fino a k cammini disgiunti di costo minimo anche quando l'approccio avido, che
+    non rivede mai il primo cammino, se ne lascerebbe sfuggire qualcuno.
+    La prima ricerca è una normale dijkstra con uscita anticipata; le sue distanze diventano i potenziali iniziali
+    (ai nodi non estratti viene assegnato il costo minimo, valore che mantiene i costi ridotti non negativi). */
+    public static List<Cammino> trovaCamminiSuurballe(GrafoCSR grafo, int sorgente, int destinazione, int k) {
+        return trovaCamminiSuurballe(grafo, sorgente, destinazione, k, TipoCoda.BINARIO);
+    }
+
+    // Come sopra, con il tipo di coda di priorità scelto con --coda.
+    static List<Cammino> trovaCamminiSuurballe(GrafoCSR grafo, int sorgente, int destinazione, int k, TipoCoda coda) {
+        SpazioLavoro spazio = spazioLavoro(grafo, coda);
+        esplora(grafo, sorgente, destinazione, spazio);
+        Cammino c1 = ricostruisciCammino(sorgente, destinazione, spazio);
+        if (c1 == null) {
+            return new ArrayList<>();
+        }
+        for (int v = 0; v < grafo.numeroNodi; v++) {
+            spazio.potenziali[v] = spazio.epocaVisitati[v] == spazio.epoca ? spazio.distanze[v] : c1.costo;
+        }
+        return completaSuurballe(grafo, sorgente, destinazione, c1, k, spazio);
+    }
+
+    /* Parte comune del motore Suurballe: i potenziali sono già in spazio.potenziali e c1 è un cammino minimo.
+    Il primo cammino viene inviato come flusso senza ulteriori ricerche; ogni ricerca successiva sul grafo residuo
+    restituisce un cammino aumentante il cui costo reale è il nuovo potenziale della destinazione: la ricerca si
+    ferma quando questo supera il costo minimo, perché da lì in poi non esistono altri k cammini tutti di costo
+    minimo. Infine il flusso viene scomposto nei cammini e azzerato. */
+    private static List<Cammino> completaSuurballe(GrafoCSR grafo, int sorgente, int destinazione, Cammino c1, int k,
+                                                   SpazioLavoro spazio) {
+        double costoMinimo = c1.costo;
+        double tolleranza = TOLLERANZA * Math.max(1.0, costoMinimo);
+
+        for (int i = 0; i < c1.archi.length; i++) {
+            inviaFlusso(grafo, c1.nodi[i], c1.archi[i], spazio);
+        }
+
+        int trovati = 1;
+        while (trovati < k && esploraResiduo(grafo, sorgente, destinazione, spazio)) {
+            if (spazio.potenziali[destinazione] - spazio.potenziali[sorgente] > costoMinimo + tolleranza) {
+                break;
+            }
+            for (int v = destinazione; v != sorgente; v = spazio.padri[v]) {
+                inviaFlusso(grafo, spazio.padri[v], spazio.archiPadri[v], spazio);
+            }
+            trovati++;
+        }
+
+        List<Cammino> cammini = scomponiFlusso(grafo, sorgente, destinazione, trovati, spazio);
+
+        for (int j = 0; j < spazio.numeroToccati; j++) {
+            spazio.flusso[spazio.archiToccati[j]] = 0;
+        }
+        spazio.numeroToccati = 0;
+        return cammini;
+    }
+
+    // Verso di percorrenza di un link: 1 se si parte dal suo estremiA, 2 altrimenti.
+    private static byte verso(GrafoCSR grafo, int da, int idArco) {
+        return grafo.estremiA[idArco] == da ? (byte) 1 : (byte) 2;
+    }
+
+    /* Invia un'unità di flusso sul link idArco partendo dal nodo da: se il link trasportava già flusso nel verso
+    opposto le due unità si annullano, altrimenti il link viene saturato in questo verso. */
+    private static void inviaFlusso(GrafoCSR grafo, int da, int idArco, SpazioLavoro spazio) {
+        byte versoArco = verso(grafo, da, idArco);
+        if (spazio.flusso[idArco] == 0) {
+            spazio.flusso[idArco] = versoArco;
+            spazio.archiToccati[spazio.numeroToccati++] = idArco;
+        } else if (spazio.flusso[idArco] != versoArco) {
+            spazio.flusso[idArco] = 0;
+        }
+    }
+
+    /* Dijkstra sul grafo residuo con costi ridotti peso + potenziale(u) - potenziale(v), tutti non negativi: un link
+    libero si percorre con il suo peso, un link con flusso nel verso opposto con peso negativo (annullamento), un link
+    già saturato nello stesso verso non è percorribile. Al termine aggiorna i potenziali sommando a ciascun nodo la
+    sua distanza ridotta, limitata a quella della destinazione per i nodi non estratti. Restituisce false se la
+    destinazione non è raggiungibile. */
+    private static boolean esploraResiduo(GrafoCSR grafo, int sorgente, int destinazione, SpazioLavoro spazio) {
+        spazio.nuovaRicerca();
+        final int epoca = spazio.epoca;
+        final double[] distanze = spazio.distanze;
+        final double[] potenziali = spazio.potenziali;
+        final byte[] flusso = spazio.flusso;
+        final CodaPriorita coda = spazio.coda;
+        int inseriti = 1, estratti = 0, diminuiti = 0, rilassati = 0;
+
+        distanze[sorgente] = 0.0;
+        spazio.padri[sorgente] = -1;
+        spazio.epocaDistanze[sorgente] = epoca;
+        coda.inserisci(sorgente, 0.0);
+
+        while (!coda.vuoto()) {
+            int u = coda.minimo();
+            coda.eliminaMinimo();
+            estratti++;
+
+            if (spazio.epocaVisitati[u] == epoca) {
+                continue;
+            }
+            spazio.epocaVisitati[u] = epoca;
+            if (u == destinazione) {
+                break;
+            }
+
+            for (int k = grafo.offset[u]; k < grafo.offset[u + 1]; k++) {
+                int v = grafo.destinazioni[k];
+                int idArco = grafo.idArchi[k];
+                if (v == u || flusso[idArco] == verso(grafo, u, idArco)) {
+                    continue;
+                }
+                rilassati++;
+                double peso = flusso[idArco] == 0 ? grafo.pesi[k] : -grafo.pesi[k];
+                double stima = distanze[u] + Math.max(0.0, peso + potenziali[u] - potenziali[v]);
+                if (stima < spazio.distanza(v)) {
+                    distanze[v] = stima;
+                    spazio.padri[v] = u;
+                    spazio.archiPadri[v] = idArco;
+                    spazio.epocaDistanze[v] = epoca;
+                    if (coda.contiene(v)) {
+                        coda.cambiaPriorita(v, stima);
+                        diminuiti++;
+                    } else {
+                        coda.inserisci(v, stima);
+                        inseriti++;
+                    }
+                }
+            }
+        }
+
+        if (Metriche.attive) {
+            Metriche.locali().ricerca(inseriti, estratti, diminuiti, rilassati, 0);
+        }
+
+        if (spazio.epocaVisitati[destinazione] != epoca) {
+            return false;
+        }
+        double limite = distanze[destinazione];
+        for (int v = 0; v < grafo.numeroNodi; v++) {
+            potenziali[v] += spazio.epocaVisitati[v] == epoca ? distanze[v] : limite;
+        }
+        return true;
+    }
+
+    /* Scompone il flusso in cammini: partendo dalla sorgente segue ogni volta un link con flusso uscente dal nodo
+    corrente, azzerandolo, fino alla destinazione. Per la conservazione del flusso si arriva sempre a destinazione
+    e ogni link compare in un solo cammino, quindi i cammini ottenuti sono disgiunti. */
+    private static List<Cammino> scomponiFlusso(GrafoCSR grafo, int sorgente, int destinazione, int numeroCammini,
+                                                SpazioLavoro spazio) {
+        List<Cammino> cammini = new ArrayList<>(numeroCammini);
+        int[] archiPercorso = spazio.archiPercorso;
+        int[] nodiPercorso = spazio.nodiPercorso;
+        for (int j = 0; j < numeroCammini; j++) {
+            nodiPercorso[0] = sorgente;
+            double costo = 0.0;
+            int lunghezza = 0;
+            int u = sorgente;
+            while (u != destinazione) {
+                int k = grafo.offset[u];
+                while (k < grafo.offset[u + 1]
+                        && (grafo.destinazioni[k] == u
+                            || spazio.flusso[grafo.idArchi[k]] != verso(grafo, u, grafo.idArchi[k]))) {
+                    k++;
+                }
+                if (k == grafo.offset[u + 1]) {
+                    break;
+                }
+                spazio.flusso[grafo.idArchi[k]] = 0;
+                archiPercorso[lunghezza++] = grafo.idArchi[k];
+                costo += grafo.pesi[k];
+                u = grafo.destinazioni[k];
+                nodiPercorso[lunghezza] = u;
+            }
+            if (u != destinazione) {
+                break;
+            }
+            cammini.add(new Cammino(costo, Arrays.copyOf(nodiPercorso, lunghezza + 1),
+                    Arrays.copyOf(archiPercorso, lunghezza)));
+        }
+        return cammini;
+    }
+
+    /* Gerarchia di contrazione (opzione --gerarchia) per calcolare il primo cammino minimo di una coppia senza
+    esplorare tutto il grafo. In preelaborazione i nodi vengono contratti uno alla volta, nell'ordine dato dalla
+    differenza fra le scorciatoie che la contrazione aggiungerebbe e gli archi che rimuove (più il numero di vicini
+    già contratti, per distribuire le contrazioni sul grafo): contrarre x significa aggiungere fra ogni coppia di
+    vicini u, v ancora presenti una scorciatoia di peso w(u,x) + w(x,v), a meno che una ricerca locale limitata non
+    trovi un cammino alternativo (testimone) non più costoso. Al termine ogni arco, originale o scorciatoia, è
+    memorizzato solo nel nodo contratto per primo, in un grafo "verso l'alto" in formato CSR.
+    Un'interrogazione è una dijkstra bidirezionale che da entrambi gli estremi segue solo gli archi verso l'alto; il
+    cammino trovato viene espanso sostituendo ogni scorciatoia con i due archi da cui è nata (il nodo medio).
+    La gerarchia non sa nulla dei link esclusi da archiEsclusi, quindi viene usata solo per il primo cammino di ogni
+    coppia, quando il bitset è vuoto: le ricerche successive di trovaCamminiDistinti restano quelle di dijkstra sul
+    grafo completo. È legata al grafo su cui è stata costruita: dopo un aggiornamento dei pesi il grafo cambia e
+    si torna al motore normale.
+    La gerarchia si salva su file (firma "ES3C") insieme a un'impronta del grafo, così al riavvio viene ricaricata
+    invece che ricostruita, purché il file della topologia non sia cambiato. */
+    private static final class GerarchiaContrazioni {
+        static final byte[] FIRMA = {'E', 'S', '3', 'C'};
+        static final int VERSIONE = 1;
+        // Nodi estratti al massimo da una ricerca dei testimoni: oltre si aggiunge la scorciatoia, che è sempre
+        // corretto.
+        private static final int LIMITE_TESTIMONI = 500;
+
+        final GrafoCSR grafo;
+        final int[] offsetSu;
+        final int[] destinazioniSu;
+        final double[] pesiSu;
+        final int[] mediSu;
+        final int[] idArchiSu;
+        private final ThreadLocal<RicercaBidirezionale> ricerche = new ThreadLocal<>();
+
+        private GerarchiaContrazioni(GrafoCSR grafo, int[] offsetSu, int[] destinazioniSu, double[] pesiSu,
+                                     int[] mediSu, int[] idArchiSu) {
+            this.grafo = grafo;
+            this.offsetSu = offsetSu;
+            this.destinazioniSu = destinazioniSu;
+            this.pesiSu = pesiSu;
+            this.mediSu = mediSu;
+            this.idArchiSu = idArchiSu;
+        }
+
+        int numeroArchi() {
+            return destinazioniSu.length;
+        }
+
+        /* Costruisce la gerarchia. Il grafo dinamico della preelaborazione è un elenco di archi (estremi, peso,
+        nodo medio o -1, link originale o -1) più, per ogni nodo, gli indici degli archi verso vicini non ancora
+        contratti; i link paralleli vengono ridotti al più leggero. La coda dei nodi da contrarre è aggiornata in modo
+        pigro: il nodo estratto viene ricalcolato e, se non è più il minimo, reinserito. */
+        static GerarchiaContrazioni costruisci(GrafoCSR grafo) {
+            Costruttore costruttore = new Costruttore(grafo);
+            return costruttore.contraiTutti();
+        }
+
+        private static final class Costruttore {
+            final GrafoCSR grafo;
+            final int n;
+            int[] estremiA = new int[16];
+            int[] estremiB = new int[16];
+            double[] pesi = new double[16];
+            int[] medi = new int[16];
+            int[] idArchi = new int[16];
+            int numeroArchi;
+            final int[][] adiacenti;
+            final int[] grado;
+            final boolean[] contratto;
+            final int[] viciniContratti;
+            // Archi verso l'alto di ogni nodo, registrati quando il nodo viene contratto.
+            final int[][] archiSu;
+            // Strutture della ricerca dei testimoni.
+            final double[] distanze;
+            final int[] epocaDistanze;
+            final HeapIndicizzato coda;
+            int epoca;
+
+            Costruttore(GrafoCSR grafo) {
+                this.grafo = grafo;
+                this.n = grafo.numeroNodi;
+                adiacenti = new int[n][];
+                grado = new int[n];
+                contratto = new boolean[n];
+                viciniContratti = new int[n];
+                archiSu = new int[n][];
+                distanze = new double[n];
+                epocaDistanze = new int[n];
+                coda = new HeapIndicizzato(n, 4);
+
+                int[] ultimo = new int[n];
+                Arrays.fill(ultimo, -1);
+                for (int u = 0; u < n; u++) {
+                    adiacenti[u] = new int[Math.max(1, grafo.offset[u + 1] - grafo.offset[u])];
+                }
+                for (int u = 0; u < n; u++) {
+                    for (int k = grafo.offset[u]; k < grafo.offset[u + 1]; k++) {
+                        int v = grafo.destinazioni[k];
+                        if (v <= u || grafo.pesi[k] == Double.POSITIVE_INFINITY) {
+                            continue;
+                        }
+                        int esistente = ultimo[v];
+                        if (esistente != -1 && estremiA[esistente] == u) {
+                            if (grafo.pesi[k] < pesi[esistente]) {
+                                pesi[esistente] = grafo.pesi[k];
+                                idArchi[esistente] = grafo.idArchi[k];
+                            }
+                            continue;
+                        }
+                        ultimo[v] = nuovoArco(u, v, grafo.pesi[k], -1, grafo.idArchi[k]);
+                    }
+                }
+            }
+
+            private int nuovoArco(int a, int b, double peso, int medio, int idArco) {
+                if (numeroArchi == estremiA.length) {
+                    int capacita = 2 * numeroArchi;
+                    estremiA = Arrays.copyOf(estremiA, capacita);
+                    estremiB = Arrays.copyOf(estremiB, capacita);
+                    pesi = Arrays.copyOf(pesi, capacita);
+                    medi = Arrays.copyOf(medi, capacita);
+                    idArchi = Arrays.copyOf(idArchi, capacita);
+                }
+                int e = numeroArchi++;
+                estremiA[e] = a;
+                estremiB[e] = b;
+                pesi[e] = peso;
+                medi[e] = medio;
+                idArchi[e] = idArco;
+                aggiungiAdiacente(a, e);
+                aggiungiAdiacente(b, e);
+                return e;
+            }
+
+            private void aggiungiAdiacente(int nodo, int e) {
+                if (grado[nodo] == adiacenti[nodo].length) {
+                    adiacenti[nodo] = Arrays.copyOf(adiacenti[nodo], 2 * grado[nodo]);
+                }
+                adiacenti[nodo][grado[nodo]++] = e;
+            }
+
+            private int altro(int e, int nodo) {
+                return estremiA[e] == nodo ? estremiB[e] : estremiA[e];
+            }
+
+            // Aggiunge la scorciatoia u-v passante per medio, o migliora l'arco u-v già presente se più pesante.
+            private void aggiungiScorciatoia(int u, int v, double peso, int medio) {
+                for (int i = 0; i < grado[u]; i++) {
+                    int e = adiacenti[u][i];
+                    if (altro(e, u) == v) {
+                        if (peso < pesi[e]) {
+                            pesi[e] = peso;
+                            medi[e] = medio;
+                            idArchi[e] = -1;
+                        }
+                        return;
+                    }
+                }
+                nuovoArco(u, v, peso, medio, -1);
+            }
+
+            /* Ricerca dei testimoni da u, che ignora il nodo x in contrazione e si ferma oltre il limite di costo o
+            dopo LIMITE_TESTIMONI estrazioni; lascia le distanze trovate in distanze/epocaDistanze. */
+            private void cercaTestimoni(int u, int x, double limite) {
+                epoca++;
+                coda.svuota();
+                distanze[u] = 0.0;
+                epocaDistanze[u] = epoca;
+                coda.inserisci(u, 0.0);
+                int estratti = 0;
+                while (!coda.vuoto() && estratti < LIMITE_TESTIMONI) {
+                    int w = coda.minimo();
+                    coda.eliminaMinimo();
+                    estratti++;
+                    if (distanze[w] > limite) {
+                        break;
+                    }
+                    for (int i = 0; i < grado[w]; i++) {
+                        int e = adiacenti[w][i];
+                        int z = altro(e, w);
+                        if (z == x) {
+                            continue;
+                        }
+                        double stima = distanze[w] + pesi[e];
+                        if (epocaDistanze[z] != epoca || stima < distanze[z]) {
+                            distanze[z] = stima;
+                            epocaDistanze[z] = epoca;
+                            if (coda.contiene(z)) {
+                                coda.cambiaPriorita(z, stima);
+                            } else {
+                                coda.inserisci(z, stima);
+                            }
+                        }
+                    }
+                }
+            }
+
+            /* Simula (o esegue) la contrazione di x e restituisce il numero di scorciatoie necessarie. */
+            private int contrai(int x, boolean esegui) {
+                int[] vicini = Arrays.copyOf(adiacenti[x], grado[x]);
+                double pesoMassimo = 0.0;
+                for (int e : vicini) {
+                    pesoMassimo = Math.max(pesoMassimo, pesi[e]);
+                }
+                int scorciatoie = 0;
+                for (int i = 0; i < vicini.length - 1; i++) {
+                    int u = altro(vicini[i], x);
+                    double pesoU = pesi[vicini[i]];
+                    cercaTestimoni(u, x, pesoU + pesoMassimo);
+                    for (int j = i + 1; j < vicini.length; j++) {
+                        int v = altro(vicini[j], x);
+                        double viaX = pesoU + pesi[vicini[j]];
+                        if (epocaDistanze[v] == epoca && distanze[v] <= viaX) {
+                            continue;
+                        }
+                        scorciatoie++;
+                        if (esegui) {
+                            aggiungiScorciatoia(u, v, viaX, x);
+                        }
+                    }
+                }
+                if (esegui) {
+                    archiSu[x] = Arrays.copyOf(adiacenti[x], grado[x]);
+                    for (int e : archiSu[x]) {
+                        int u = altro(e, x);
+                        for (int i = 0; i < grado[u]; i++) {
+                            if (adiacenti[u][i] == e) {
+                                adiacenti[u][i] = adiacenti[u][--grado[u]];
+                                break;
+                            }
+                        }
+                        viciniContratti[u]++;
+                    }
+                    contratto[x] = true;
+                    grado[x] = 0;
+                }
+                return scorciatoie;
+            }
+
+            private double priorita(int x) {
+                return contrai(x, false) - grado[x] + viciniContratti[x];
+            }
+
+            GerarchiaContrazioni contraiTutti() {
+                HeapIndicizzato ordine = new HeapIndicizzato(n, 4);
+                double[] prioritaNodi = new double[n];
+                for (int x = 0; x < n; x++) {
+                    prioritaNodi[x] = priorita(x);
+                    ordine.inserisci(x, prioritaNodi[x]);
+                }
+                while (!ordine.vuoto()) {
+                    int x = ordine.minimo();
+                    ordine.eliminaMinimo();
+                    double aggiornata = priorita(x);
+                    if (!ordine.vuoto() && aggiornata > prioritaNodi[ordine.minimo()]) {
+                        prioritaNodi[x] = aggiornata;
+                        ordine.inserisci(x, aggiornata);
+                        continue;
+                    }
+                    contrai(x, true);
+                }
+
+                int[] offsetSu = new int[n + 1];
+                for (int x = 0; x < n; x++) {
+                    offsetSu[x + 1] = offsetSu[x] + archiSu[x].length;
+                }
+                int totale = offsetSu[n];
+                int[] destinazioniSu = new int[totale];
+                double[] pesiSu = new double[totale];
+                int[] mediSu = new int[totale];
+                int[] idArchiSu = new int[totale];
+                for (int x = 0; x < n; x++) {
+                    int k = offsetSu[x];
+                    for (int e : archiSu[x]) {
+                        destinazioniSu[k] = altro(e, x);
+                        pesiSu[k] = pesi[e];
+                        mediSu[k] = medi[e];
+                        idArchiSu[k] = idArchi[e];
+                        k++;
+                    }
+                }
+                return new GerarchiaContrazioni(grafo, offsetSu, destinazioniSu, pesiSu, mediSu, idArchiSu);
+            }
+        }
+
+        // Strutture di una dijkstra bidirezionale, una istanza per thread (0 = avanti dalla sorgente, 1 = indietro).
+        private static final class RicercaBidirezionale {
+            final double[][] distanze;
+            final int[][] padri;
+            final int[][] archiPadri;
+            final int[][] epocaDistanze;
+            final HeapIndicizzato[] code;
+            int epoca;
+
+            RicercaBidirezionale(int numeroNodi) {
+                distanze = new double[2][numeroNodi];
+                padri = new int[2][numeroNodi];
+                archiPadri = new int[2][numeroNodi];
+                epocaDistanze = new int[2][numeroNodi];
+                code = new HeapIndicizzato[]{new HeapIndicizzato(numeroNodi, 4), new HeapIndicizzato(numeroNodi, 4)};
+            }
+        }
+
+        /* Primo cammino minimo fra sorgente e destinazione, oppure null se non esiste. Le due ricerche avanzano
+        alternando il lato con la priorità minima più bassa e si fermano quando entrambe superano il miglior costo
+        trovato; ogni nodo estratto da un lato e già raggiunto dall'altro è un possibile punto d'incontro. */
+        Cammino camminoMinimo(int sorgente, int destinazione) {
+            if (sorgente == destinazione) {
+                return null;
+            }
+            RicercaBidirezionale ricerca = ricerche.get();
+            if (ricerca == null) {
+                ricerca = new RicercaBidirezionale(grafo.numeroNodi);
+                ricerche.set(ricerca);
+            }
+            if (ricerca.epoca == Integer.MAX_VALUE) {
+                Arrays.fill(ricerca.epocaDistanze[0], 0);
+                Arrays.fill(ricerca.epocaDistanze[1], 0);
+                ricerca.epoca = 0;
+            }
+            int epoca = ++ricerca.epoca;
+            int[] estremi = {sorgente, destinazione};
+            for (int lato = 0; lato < 2; lato++) {
+                ricerca.code[lato].svuota();
+                ricerca.distanze[lato][estremi[lato]] = 0.0;
+                ricerca.padri[lato][estremi[lato]] = -1;
+                ricerca.epocaDistanze[lato][estremi[lato]] = epoca;
+                ricerca.code[lato].inserisci(estremi[lato], 0.0);
+            }
+            int inseriti = 2, estratti = 0, diminuiti = 0, rilassati = 0;
+
+            double migliore = Double.POSITIVE_INFINITY;
+            int incontro = -1;
+            while (true) {
+                double minimoAvanti = ricerca.code[0].vuoto() ? Double.POSITIVE_INFINITY
+                        : ricerca.distanze[0][ricerca.code[0].minimo()];
+                double minimoIndietro = ricerca.code[1].vuoto() ? Double.POSITIVE_INFINITY
+                        : ricerca.distanze[1][ricerca.code[1].minimo()];
+                if (Math.min(minimoAvanti, minimoIndietro) >= migliore) {
+                    break;
+                }
+                int lato = minimoAvanti <= minimoIndietro ? 0 : 1;
+                HeapIndicizzato coda = ricerca.code[lato];
+                double[] distanze = ricerca.distanze[lato];
+                int[] epocaDistanze = ricerca.epocaDistanze[lato];
+                int u = coda.minimo();
+                coda.eliminaMinimo();
+                estratti++;
+
+                if (ricerca.epocaDistanze[1 - lato][u] == epoca) {
+                    double totale = distanze[u] + ricerca.distanze[1 - lato][u];
+                    if (totale < migliore) {
+                        migliore = totale;
+                        incontro = u;
+                    }
+                }
+                for (int k = offsetSu[u]; k < offsetSu[u + 1]; k++) {
+                    rilassati++;
+                    int v = destinazioniSu[k];
+                    double stima = distanze[u] + pesiSu[k];
+                    if (epocaDistanze[v] != epoca || stima < distanze[v]) {
+                        distanze[v] = stima;
+                        ricerca.padri[lato][v] = u;
+                        ricerca.archiPadri[lato][v] = k;
+                        epocaDistanze[v] = epoca;
+                        if (coda.contiene(v)) {
+                            coda.cambiaPriorita(v, stima);
+                            diminuiti++;
+                        } else {
+                            coda.inserisci(v, stima);
+                            inseriti++;
+                        }
+                    }
+                }
+            }
+            if (Metriche.attive) {
+                Metriche.locali().ricerca(inseriti, estratti, diminuiti, rilassati, 0);
+            }
+            if (incontro == -1) {
+                return null;
+            }
+
+            // Archi verso l'alto dalla sorgente al punto d'incontro, poi dal punto d'incontro alla destinazione.
+            int lunghezza = 0;
+            for (int v = incontro; ricerca.padri[0][v] != -1; v = ricerca.padri[0][v]) {
+                lunghezza++;
+            }
+            int[] salita = new int[lunghezza];
+            for (int v = incontro; ricerca.padri[0][v] != -1; v = ricerca.padri[0][v]) {
+                salita[--lunghezza] = v;
+            }
+            // Per ogni link attraversato, il percorso registra il nodo di partenza, l'identificativo e il peso.
+            ElencoArchi percorso = new ElencoArchi(16);
+            for (int v : salita) {
+                espandi(ricerca.padri[0][v], v, ricerca.archiPadri[0][v], percorso);
+            }
+            for (int v = incontro; ricerca.padri[1][v] != -1; v = ricerca.padri[1][v]) {
+                espandi(v, ricerca.padri[1][v], ricerca.archiPadri[1][v], percorso);
+            }
+            int[] nodi = Arrays.copyOf(percorso.sorgenti, percorso.numero + 1);
+            nodi[percorso.numero] = destinazione;
+
+            // Il costo viene risommato dalla sorgente nell'ordine del cammino, come fa dijkstra, così coincide
+            // esattamente con quello dei cammini alternativi con cui trovaCamminiDistinti lo confronta.
+            double costo = 0.0;
+            for (int i = 0; i < percorso.numero; i++) {
+                costo += percorso.pesi[i];
+            }
+            return new Cammino(costo, nodi, Arrays.copyOf(percorso.destinazioni, percorso.numero));
+        }
+
+        /* Aggiunge al cammino i nodi e i link originali dell'arco k (memorizzato nel nodo più basso fra a e b),
+        percorso da a verso b; una scorciatoia viene sostituita dai due archi verso l'alto del suo nodo medio. */
+        private void espandi(int a, int b, int k, ElencoArchi percorso) {
+            int medio = mediSu[k];
+            if (medio == -1) {
+                percorso.aggiungi(a, idArchiSu[k], pesiSu[k]);
+                return;
+            }
+            espandi(a, medio, arcoSu(medio, a), percorso);
+            espandi(medio, b, arcoSu(medio, b), percorso);
+        }
+
+        private int arcoSu(int nodo, int verso) {
+            for (int k = offsetSu[nodo]; k < offsetSu[nodo + 1]; k++) {
+                if (destinazioniSu[k] == verso) {
+                    return k;
+                }
+            }
+            throw new IllegalStateException("Gerarchia incoerente fra N" + nodo + " e N" + verso);
+        }
+
+        /* Impronta del grafo (struttura, pesi e identificativi dei link) salvata con la gerarchia, per riconoscere
+        un file costruito su una topologia diversa. */
+        static long impronta(GrafoCSR grafo) {
+            long h = 1125899906842597L;
+            h = 31 * h + grafo.numeroNodi;
+            h = 31 * h + grafo.numeroArchi;
+            for (int k = 0; k < grafo.destinazioni.length; k++) {
+                h = 31 * h + grafo.destinazioni[k];
+                h = 31 * h + grafo.idArchi[k];
+                h = 31 * h + Double.doubleToLongBits(grafo.pesi[k]);
+            }
+            return h;
+        }
+
+        void salva(String nomeFile) throws IOException {
+            try (DataOutputStream uscita = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(nomeFile), 1 << 20))) {
+                uscita.write(FIRMA);
+                uscita.writeInt(VERSIONE);
+                uscita.writeInt(grafo.numeroNodi);
+                uscita.writeLong(impronta(grafo));
+                uscita.writeInt(destinazioniSu.length);
+                for (int valore : offsetSu) {
+                    uscita.writeInt(valore);
+                }
+                for (int k = 0; k < destinazioniSu.length; k++) {
+                    uscita.writeInt(destinazioniSu[k]);
+                    uscita.writeDouble(pesiSu[k]);
+                    uscita.writeInt(mediSu[k]);
+                    uscita.writeInt(idArchiSu[k]);
+                }
+            }
+        }
+
+        /* Carica la gerarchia salvata nel file; restituisce null se il file è stato costruito per un altro grafo. Un
+        file danneggiato fa lanciare una IOException: la dimensione deve corrispondere al numero di archi, gli offset
+        devono crescere, destinazioni, nodi medi e link devono essere nei limiti, ogni arco originale deve avere il
+        peso del suo link e ogni scorciatoia la somma dei due archi del suo nodo medio, e gli archi verso l'alto non
+        devono formare cicli (la ricostruzione dei cammini segue i nodi medi e non terminerebbe). */
+        static GerarchiaContrazioni carica(String nomeFile, GrafoCSR grafo) throws IOException {
+            long dimensione = new File(nomeFile).length();
+            try (DataInputStream ingresso = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(nomeFile), 1 << 20))) {
+                byte[] firma = new byte[FIRMA.length];
+                ingresso.readFully(firma);
+                if (!Arrays.equals(firma, FIRMA) || ingresso.readInt() != VERSIONE) {
+                    throw new IOException("il file non contiene una gerarchia di contrazione");
+                }
+                if (ingresso.readInt() != grafo.numeroNodi || ingresso.readLong() != impronta(grafo)) {
+                    return null;
+                }
+                int n = grafo.numeroNodi;
+                int numeroArchi = ingresso.readInt();
+                // Firma, versione, nodi, impronta e numero di archi, poi gli offset e i quattro valori di ogni arco.
+                long attesa = FIRMA.length + 3 * Integer.BYTES + Long.BYTES + (long) (n + 1) * Integer.BYTES
+                        + (long) numeroArchi * (3 * Integer.BYTES + Double.BYTES);
+                if (numeroArchi < 0 || dimensione != attesa) {
+                    throw danneggiata();
+                }
+                int[] offsetSu = new int[n + 1];
+                for (int i = 0; i < offsetSu.length; i++) {
+                    offsetSu[i] = controlla(ingresso.readInt(), i == 0 ? 0 : offsetSu[i - 1], numeroArchi);
+                }
+                controlla(offsetSu[n], numeroArchi, numeroArchi);
+                int[] destinazioniSu = new int[numeroArchi];
+                double[] pesiSu = new double[numeroArchi];
+                int[] mediSu = new int[numeroArchi];
+                int[] idArchiSu = new int[numeroArchi];
+                for (int k = 0; k < numeroArchi; k++) {
+                    destinazioniSu[k] = ingresso.readInt();
+                    pesiSu[k] = ingresso.readDouble();
+                    mediSu[k] = ingresso.readInt();
+                    idArchiSu[k] = ingresso.readInt();
+                }
+                controllaArchi(grafo, offsetSu, destinazioniSu, pesiSu, mediSu, idArchiSu);
+                return new GerarchiaContrazioni(grafo, offsetSu, destinazioniSu, pesiSu, mediSu, idArchiSu);
+            }
+        }
+
+        // Restituisce il valore se sta fra minimo e massimo (compresi), altrimenti il file è danneggiato.
+        private static int controlla(int valore, int minimo, int massimo) throws IOException {
+            if (valore < minimo || valore > massimo) {
+                throw danneggiata();
+            }
+            return valore;
+        }
+
+        private static IOException danneggiata() {
+            return new IOException("il file contiene una gerarchia danneggiata");
+        }
+
+        private static void controllaArchi(GrafoCSR grafo, int[] offsetSu, int[] destinazioniSu, double[] pesiSu,
+                                           int[] mediSu, int[] idArchiSu) throws IOException {
+            int n = grafo.numeroNodi;
+            int[] entranti = new int[n];
+            for (int x = 0; x < n; x++) {
+                for (int k = offsetSu[x]; k < offsetSu[x + 1]; k++) {
+                    int v = controlla(destinazioniSu[k], 0, n - 1);
+                    if (v == x) {
+                        throw danneggiata();
+                    }
+                    int medio = controlla(mediSu[k], -1, n - 1);
+                    if (medio == -1) {
+                        controlla(idArchiSu[k], 0, grafo.numeroArchi - 1);
+                        if (!haLink(grafo, x, v, idArchiSu[k], pesiSu[k])) {
+                            throw danneggiata();
+                        }
+                    } else {
+                        controlla(idArchiSu[k], -1, -1);
+                        int versoX = trova(offsetSu, destinazioniSu, medio, x);
+                        int versoV = trova(offsetSu, destinazioniSu, medio, v);
+                        if (versoX == -1 || versoV == -1 || pesiSu[k] != pesiSu[versoX] + pesiSu[versoV]) {
+                            throw danneggiata();
+                        }
+                    }
+                    entranti[v]++;
+                }
+            }
+            // Ordinamento topologico: ogni nodo deve poter essere tolto quando non ha più archi entranti.
+            int[] pronti = new int[n];
+            int numero = 0;
+            for (int x = 0; x < n; x++) {
+                if (entranti[x] == 0) {
+                    pronti[numero++] = x;
+                }
+            }
+            for (int i = 0; i < numero; i++) {
+                int x = pronti[i];
+                for (int k = offsetSu[x]; k < offsetSu[x + 1]; k++) {
+                    if (--entranti[destinazioniSu[k]] == 0) {
+                        pronti[numero++] = destinazioniSu[k];
+                    }
+                }
+            }
+            if (numero != n) {
+                throw danneggiata();
+            }
+        }
+
+        // Vero se il grafo ha il link id fra x e v, con lo stesso peso dell'arco della gerarchia.
+        private static boolean haLink(GrafoCSR grafo, int x, int v, int id, double peso) {
+            for (int k = grafo.offset[x]; k < grafo.offset[x + 1]; k++) {
+                if (grafo.idArchi[k] == id) {
+                    return grafo.destinazioni[k] == v && grafo.pesi[k] == peso;
+                }
+            }
+            return false;
+        }
+
+        // Indice dell'arco verso l'alto da nodo a verso, oppure -1.
+        private static int trova(int[] offsetSu, int[] destinazioniSu, int nodo, int verso) {
+            for (int k = offsetSu[nodo]; k < offsetSu[nodo + 1]; k++) {
+                if (destinazioniSu[k] == verso) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+
+        /* Carica la gerarchia dal file se corrisponde al grafo, altrimenti la costruisce e la salva nel file. */
+        static GerarchiaContrazioni caricaOCostruisci(String nomeFile, GrafoCSR grafo) {
+            if (new File(nomeFile).exists()) {
+                try {
+                    GerarchiaContrazioni gerarchia = carica(nomeFile, grafo);
+                    if (gerarchia != null) {
+                        return gerarchia;
+                    }
+                } catch (IOException e) {
+                    System.out.println("Errore nella lettura della gerarchia: " + e.getMessage());
+                }
+            }
+            GerarchiaContrazioni gerarchia = costruisci(grafo);
+            try {
+                gerarchia.salva(nomeFile);
+            } catch (IOException e) {
+                System.out.println("Errore nel salvataggio della gerarchia: " + e.getMessage());
+            }
+            return gerarchia;
+        }
+    }
+
+    /* Restituisce i cammini di una coppia con il motore e il numero massimo di cammini scelti nelle opzioni. Con il
+    motore avido e una gerarchia di contrazione (opzione --gerarchia, altrimenti null) costruita sul grafo corrente,
+    il primo cammino viene dalla gerarchia e solo le alternative vengono cercate con dijkstra. */
+    private static List<Cammino> cammini(GrafoCSR grafo, int sorgente, int destinazione, Opzioni opzioni,
+            GerarchiaContrazioni gerarchia) {
+        if (!Metriche.attive) {
+            return calcolaCammini(grafo, sorgente, destinazione, opzioni, gerarchia);
+        }
+        Metriche metriche = Metriche.locali();
+        long ricercheIniziali = metriche.ricerche;
+        long inizio = System.nanoTime();
+        List<Cammino> cammini = calcolaCammini(grafo, sorgente, destinazione, opzioni, gerarchia);
+        metriche.coppia(System.nanoTime() - inizio, metriche.ricerche - ricercheIniziali);
+        return cammini;
+    }
+
+    private static List<Cammino> calcolaCammini(GrafoCSR grafo, int sorgente, int destinazione, Opzioni opzioni,
+            GerarchiaContrazioni gerarchia) {
+        if (opzioni.motore == Motore.SUURBALLE) {
+            return trovaCamminiSuurballe(grafo, sorgente, destinazione, opzioni.cammini, opzioni.coda);
+        }
+        if (gerarchia != null && gerarchia.grafo == grafo) {
+            Cammino c1 = gerarchia.camminoMinimo(sorgente, destinazione);
+            return completaCammini(grafo, sorgente, destinazione, c1, opzioni.cammini,
+                    spazioLavoro(grafo, opzioni.coda));
+        }
+        return trovaCamminiDistinti(grafo, sorgente, destinazione, opzioni.cammini, opzioni.coda);
+    }
+
+    /* Stampa i cammini trovati tra un nodo sorgente e destinazione, scorrendo nella lista cammini costruita in
+    trovaCamminiDistinti, qualora la struttura fosse vuota, perchè non è stato trovato nessun cammino, lo segnala.
+    Il testo viene scritto pezzo per pezzo sul Writer indicato, senza costruire stringhe intermedie per la riga. */
+    public static void stampaRisultati(int sorgente, int destinazione, List<Cammino> cammini, Writer uscita)
+            throws IOException {
+        stampaIntestazione(sorgente, destinazione, cammini.size(), uscita);
+        for (int i = 0; i < cammini.size(); i++) {
+            Cammino c = cammini.get(i);
+            stampaCammino(i + 1, c.costo, c.nodi, 0, c.nodi.length, uscita);
+        }
+    }
+
+    // Prima riga dei risultati di una coppia: "Cammino da ..." oppure, senza cammini, "Nessun cammino da ...".
+    private static void stampaIntestazione(int sorgente, int destinazione, int numeroCammini, Writer uscita)
+            throws IOException {
+        if (numeroCammini == 0) {
+            uscita.write("Nessun cammino da N");
+            uscita.write(Integer.toString(sorgente));
+            uscita.write(" a N");
+            uscita.write(Integer.toString(destinazione));
+            uscita.write(System.lineSeparator());
+            return;
+        }
+
+        uscita.write("Cammino da N");
+        uscita.write(Integer.toString(sorgente));
+        uscita.write(" a N");
+        uscita.write(Integer.toString(destinazione));
+        uscita.write(System.lineSeparator());
+    }
+
+    // Riga di un cammino, con i nodi letti da nodi[da .. a): così la stessa stampa serve anche ad ArchivioCammini.
+    private static void stampaCammino(int numero, double costo, int[] nodi, int da, int a, Writer uscita)
+            throws IOException {
+        uscita.write("Cammino ");
+        uscita.write(Integer.toString(numero));
+        uscita.write(": [");
+        for (int i = da; i < a; i++) {
+            if (i > da) {
+                uscita.write(", ");
+            }
+            uscita.write(Integer.toString(nodi[i]));
+        }
+        uscita.write("], costo: ");
+        uscita.write(Double.toString(costo));
+        uscita.write(System.lineSeparator());
+    }
+
+    /* Destinazione dei risultati di tutte le coppie: il calcolo consegna ogni coppia appena è pronta (nell'ordine
+    dell'output) e la destinazione la scrive subito, senza conservare l'insieme completo dei risultati. */
+    private interface DestinazioneRisultati extends Closeable {
+        void scrivi(int sorgente, int destinazione, List<Cammino> cammini) throws IOException;
+
+        // Scrive i cammini di un gruppo di un archivio; le destinazioni concrete li leggono senza ricreare oggetti.
+        default void scrivi(int sorgente, int destinazione, ArchivioCammini archivio, int gruppo) throws IOException {
+            scrivi(sorgente, destinazione, archivio.cammini(gruppo));
+        }
+
+        // Riga informativa fra i risultati (per esempio l'intestazione di un aggiornamento del grafo).
+        void annota(String riga) throws IOException;
+    }
+
+    /* Uscita testuale nel formato di stampaRisultati, con un buffer da 1 MB: le scritture arrivano al file o allo
+    standard output a blocchi invece che una riga alla volta. Chiudere l'uscita verso lo standard output si limita a
+    svuotare il buffer, così il main può ancora stampare il tempo totale. */
+    private static final class UscitaTesto implements DestinazioneRisultati {
+        private final Writer uscita;
+        private final boolean standardOutput;
+
+        UscitaTesto(String nomeFile) throws IOException {
+            this.standardOutput = nomeFile == null;
+            OutputStream flusso = standardOutput ? System.out : new FileOutputStream(nomeFile);
+            this.uscita = new BufferedWriter(new OutputStreamWriter(flusso), 1 << 20);
+        }
+
+        public void scrivi(int sorgente, int destinazione, List<Cammino> cammini) throws IOException {
+            stampaRisultati(sorgente, destinazione, cammini, uscita);
+        }
+
+        public void scrivi(int sorgente, int destinazione, ArchivioCammini archivio, int gruppo) throws IOException {
+            archivio.stampa(sorgente, destinazione, gruppo, uscita);
+        }
+
+        public void annota(String riga) throws IOException {
+            uscita.write(riga);
+            uscita.write(System.lineSeparator());
+        }
+
+        public void close() throws IOException {
+            if (standardOutput) {
+                uscita.flush();
+            } else {
+                uscita.close();
+            }
+        }
+    }
+
+    /* Uscita binaria compatta: dopo l'intestazione (i byte "ES3B", la versione e il numero di nodi) ogni coppia è
+    registrata come sorgente, destinazione e numero di cammini, e ogni cammino come costo (8 byte) seguito dal numero
+    di nodi e dai nodi stessi. Tutti gli interi sono varint senza segno (7 bit per byte, il bit alto indica che il
+    numero continua), quindi un nodo sotto 128 occupa un solo byte. Il file si rilegge con l'opzione --leggi. */
+    private static final class UscitaBinaria implements DestinazioneRisultati {
+        static final byte[] FIRMA = {'E', 'S', '3', 'B'};
+        static final int VERSIONE = 1;
+
+        private final DataOutputStream uscita;
+
+        UscitaBinaria(String nomeFile, int numeroNodi) throws IOException {
+            uscita = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(nomeFile), 1 << 20));
+            uscita.write(FIRMA);
+            scriviVarint(VERSIONE);
+            scriviVarint(numeroNodi);
+        }
+
+        public void scrivi(int sorgente, int destinazione, List<Cammino> cammini) throws IOException {
+            scriviVarint(sorgente);
+            scriviVarint(destinazione);
+            scriviVarint(cammini.size());
+            for (Cammino c : cammini) {
+                scriviCammino(c.costo, c.nodi, 0, c.nodi.length);
+            }
+        }
+
+        public void scrivi(int sorgente, int destinazione, ArchivioCammini archivio, int gruppo) throws IOException {
+            scriviVarint(sorgente);
+            scriviVarint(destinazione);
+            int numero = archivio.numeroCammini(gruppo);
+            scriviVarint(numero);
+            for (int i = 0; i < numero; i++) {
+                int c = archivio.cammino(gruppo, i);
+                scriviCammino(archivio.costo(c), archivio.nodi, archivio.inizio[c], archivio.inizio[c + 1]);
+            }
+        }
+
+        private void scriviCammino(double costo, int[] nodi, int da, int a) throws IOException {
+            uscita.writeDouble(costo);
+            scriviVarint(a - da);
+            for (int i = da; i < a; i++) {
+                scriviVarint(nodi[i]);
+            }
+        }
+
+        // Il formato binario contiene solo coppie: le annotazioni vanno sullo standard output.
+        public void annota(String riga) {
+            System.out.println(riga);
+        }
+
+        private void scriviVarint(int valore) throws IOException {
+            while ((valore & ~0x7F) != 0) {
+                uscita.write((valore & 0x7F) | 0x80);
+                valore >>>= 7;
+            }
+            uscita.write(valore);
+        }
+
+        public void close() throws IOException {
+            uscita.close();
+        }
+    }
+
+    /* Strumento di lettura del formato binario (opzione --leggi): decodifica il file e ne riscrive il contenuto
+    come testo sulla destinazione indicata, coppia per coppia. */
+    private static void leggiRisultatiBinari(String nomeFile, DestinazioneRisultati destinazione) throws IOException {
+        try (DataInputStream ingresso = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(nomeFile), 1 << 20))) {
+            byte[] firma = new byte[UscitaBinaria.FIRMA.length];
+            ingresso.readFully(firma);
+            if (!Arrays.equals(firma, UscitaBinaria.FIRMA) || leggiVarint(ingresso) != UscitaBinaria.VERSIONE) {
+                throw new IOException("il file non contiene risultati in formato binario");
+            }
+            leggiVarint(ingresso);
+
+            int primoByte;
+            while ((primoByte = ingresso.read()) != -1) {
+                int sorgente = continuaVarint(ingresso, primoByte);
+                int destinazioneCoppia = leggiVarint(ingresso);
+                int numeroCammini = leggiVarint(ingresso);
+                List<Cammino> cammini = new ArrayList<>(numeroCammini);
+                for (int i = 0; i < numeroCammini; i++) {
+                    double costo = ingresso.readDouble();
+                    int lunghezza = leggiVarint(ingresso);
+                    int[] nodi = new int[lunghezza];
+                    for (int j = 0; j < lunghezza; j++) {
+                        nodi[j] = leggiVarint(ingresso);
+                    }
+                    cammini.add(new Cammino(costo, nodi, new int[0]));
+                }
+                destinazione.scrivi(sorgente, destinazioneCoppia, cammini);
+            }
+        }
+    }
+
+    private static int leggiVarint(DataInputStream ingresso) throws IOException {
+        return continuaVarint(ingresso, ingresso.readUnsignedByte());
+    }
+
+    private static int continuaVarint(DataInputStream ingresso, int primoByte) throws IOException {
+        int valore = primoByte & 0x7F;
+        int spostamento = 7;
+        int b = primoByte;
+        while ((b & 0x80) != 0) {
+            b = ingresso.readUnsignedByte();
+            valore |= (b & 0x7F) << spostamento;
+            spostamento += 7;
+        }
+        return valore;
+    }
+
+    /* Restituisce il cammino percorso in senso inverso: nel grafo non orientato ha lo stesso costo e gli stessi
+    archi, quindi i cammini disgiunti da s a d, invertiti, sono cammini disgiunti da d a s. */
+    private static Cammino inverti(Cammino c) {
+        int[] nodi = new int[c.nodi.length];
+        for (int i = 0; i < nodi.length; i++) {
+            nodi[i] = c.nodi[nodi.length - 1 - i];
+        }
+        int[] archi = new int[c.archi.length];
+        for (int i = 0; i < archi.length; i++) {
+            archi[i] = c.archi[archi.length - 1 - i];
+        }
+        return new Cammino(c.costo, nodi, archi);
+    }
+
+    /* Calcolo per sorgente (opzione --batch): una sola ricerca completa da s produce l'albero dei cammini minimi, da
+    cui si ricavano i primi cammini verso tutte le destinazioni d > s, identici a quelli che troverebbe dijkstra con
+    uscita anticipata; le alternative disgiunte si cercano poi coppia per coppia. Le destinazioni d < s non vengono
+    calcolate: i loro cammini sono gli inversi di quelli della coppia (d, s), già presenti nella riga di d.
+    Rispetto al calcolo standard le ricerche passano da al massimo 3n(n-1) a al massimo n + n(n-1).
+    Con il motore Suurballe le distanze dell'albero completo sono direttamente i potenziali di ogni coppia della riga.
+    Nelle metriche la latenza di una coppia comprende solo la sua parte: la ricerca dell'albero è condivisa dalla riga.
+    La gerarchia di contrazione (--gerarchia) non serve qui: l'albero dà già i primi cammini di tutta la riga. */
+    private static ArchivioCammini calcolaRigaBatch(GrafoCSR grafo, int sorgente, Opzioni opzioni) {
+        SpazioLavoro spazio = spazioLavoro(grafo, opzioni.coda);
+        int n = grafo.numeroNodi;
+        esplora(grafo, sorgente, -1, spazio);
+        Cammino[] primi = new Cammino[n];
+        for (int d = sorgente + 1; d < n; d++) {
+            primi[d] = ricostruisciCammino(sorgente, d, spazio);
+        }
+        double[] albero = opzioni.motore == Motore.SUURBALLE ? Arrays.copyOf(spazio.distanze, n) : null;
+        int epocaAlbero = spazio.epoca;
+        int[] epocaVisitatiAlbero = albero != null ? Arrays.copyOf(spazio.epocaVisitati, n) : null;
+
+        ArchivioCammini riga = new ArchivioCammini(n);
+        Metriche metriche = Metriche.attive ? Metriche.locali() : null;
+        for (int d = sorgente + 1; d < n; d++) {
+            long ricercheIniziali = metriche != null ? metriche.ricerche : 0;
+            long inizio = metriche != null ? System.nanoTime() : 0;
+            if (albero == null) {
+                riga.registra(d, completaCammini(grafo, sorgente, d, primi[d], opzioni.cammini, spazio));
+            } else if (primi[d] == null) {
+                riga.registra(d, new ArrayList<>());
+            } else {
+                for (int v = 0; v < n; v++) {
+                    spazio.potenziali[v] = epocaVisitatiAlbero[v] == epocaAlbero ? albero[v] : primi[d].costo;
+                }
+                riga.registra(d, completaSuurballe(grafo, sorgente, d, primi[d], opzioni.cammini, spazio));
+            }
+            if (metriche != null) {
+                metriche.coppia(System.nanoTime() - inizio, metriche.ricerche - ricercheIniziali);
+            }
+        }
+        return riga;
+    }
+
+    // Motori disponibili per il calcolo dei cammini disgiunti di una coppia.
+    private enum Motore {
+        AVIDO, SUURBALLE;
+
+        static Motore daNome(String nome) {
+            for (Motore motore : values()) {
+                if (motore.name().equalsIgnoreCase(nome)) {
+                    return motore;
+                }
+            }
+            throw new IllegalArgumentException("Motore non valido: " + nome);
+        }
+    }
+
+    /* Descrive la modifica di un link e decide quali coppie ne sono interessate. Una coppia va ricalcolata se uno dei
+    suoi cammini usa il link modificato oppure, quando il peso è diminuito, se passando per il link si ottiene un
+    cammino di costo non superiore al suo costo minimo (con costo uguale potrebbe aggiungersi un cammino
+    disgiunto): per questo servono le distanze da entrambi gli estremi del link, calcolate sul grafo aggiornato
+    con due ricerche complete. Se il peso aumenta, le coppie che non usano il link restano valide: i loro cammini
+    hanno lo stesso costo e nessun cammino può diventare più economico. */
+    private static final class ModificaArco {
+        final GrafoCSR grafo;
+        final int[] archi;
+        final double peso;
+        final boolean diminuito;
+        final double[] distanzeA;
+        final double[] distanzeB;
+
+        ModificaArco(GrafoCSR grafo, int a, int b, double peso, TipoCoda coda) {
+            this.archi = grafo.archiFra(a, b);
+            if (archi.length == 0) {
+                throw new IllegalArgumentException("Link inesistente fra N" + a + " e N" + b);
+            }
+            boolean diminuito = false;
+            for (int idArco : archi) {
+                diminuito |= peso < grafo.peso(idArco);
+            }
+            this.grafo = grafo.conPeso(archi, peso);
+            this.peso = peso;
+            this.diminuito = diminuito;
+            this.distanzeA = diminuito ? distanzeDa(this.grafo, a, coda) : null;
+            this.distanzeB = diminuito ? distanzeDa(this.grafo, b, coda) : null;
+        }
+
+        private static double[] distanzeDa(GrafoCSR grafo, int nodo, TipoCoda coda) {
+            SpazioLavoro spazio = spazioLavoro(grafo, coda);
+            esplora(grafo, nodo, -1, spazio);
+            double[] distanze = new double[grafo.numeroNodi];
+            for (int v = 0; v < distanze.length; v++) {
+                distanze[v] = spazio.epocaVisitati[v] == spazio.epoca ? spazio.distanze[v] : Double.POSITIVE_INFINITY;
+            }
+            return distanze;
+        }
+
+        boolean usaArco(List<Cammino> cammini) {
+            for (Cammino c : cammini) {
+                for (int idArco : c.archi) {
+                    for (int modificato : archi) {
+                        if (idArco == modificato) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        boolean interessa(int sorgente, int destinazione, List<Cammino> cammini) {
+            return usaArco(cammini) || diventaPiuEconomica(sorgente, destinazione,
+                    cammini.isEmpty() ? Double.POSITIVE_INFINITY : cammini.get(0).costo);
+        }
+
+        // Come interessa, per una coppia conservata in un ArchivioCammini.
+        boolean interessa(int sorgente, int destinazione, ArchivioCammini archivio, int gruppo) {
+            return archivio.usaArchi(gruppo, archi)
+                    || diventaPiuEconomica(sorgente, destinazione, archivio.costoMinimo(gruppo));
+        }
+
+        private boolean diventaPiuEconomica(int sorgente, int destinazione, double costo) {
+            if (!diminuito) {
+                return false;
+            }
+            // Una coppia che resta senza cammini non cambia: il costo passando per il link deve essere finito.
+            double limite = costo + TOLLERANZA * Math.max(1.0, costo);
+            double daA = distanzeA[sorgente] + peso + distanzeB[destinazione];
+            double daB = distanzeB[sorgente] + peso + distanzeA[destinazione];
+            return (daA < Double.POSITIVE_INFINITY && daA <= limite)
+                    || (daB < Double.POSITIVE_INFINITY && daB <= limite);
+        }
+    }
+
+    /* Motore incrementale: conserva i risultati di tutte le coppie e un indice inverso che, per ogni link, elenca le
+    coppie i cui cammini lo attraversano. Quando un link cambia peso o si guasta (aggiornaPeso, rimuoviArco) vengono
+    ricalcolate solo le coppie indicate da ModificaArco: quelle dell'indice del link, più, se il peso è diminuito,
+    quelle che potrebbero diventare più economiche, cercate solo fra le sorgenti e le destinazioni vicine al link
+    (segnaPiuEconomiche, senza ricerche).
+    I risultati stanno in un ArchivioCammini per sorgente, con la destinazione come gruppo: le righe vengono
+    calcolate in parallelo e ognuna riempie il proprio archivio. Le liste dell'indice sono array di chiavi long
+    (sorgente * n + destinazione, che con più di 46340 nodi non sta in un int) a cui le coppie ricalcolate vengono
+    aggiunte in coda. Prima di ricalcolare una coppia, i link dei suoi vecchi cammini contano una voce non più
+    valida; la lista di un link con più voci non valide che valide viene compattata (restano, una volta sola, le
+    coppie che lo attraversano davvero), così la sua lunghezza resta al più il doppio delle coppie attuali.
+    I calcoli paralleli usano un solo ForkJoinPool, creato con il motore e chiuso da close. */
+    private static final class MotoreIncrementale implements AutoCloseable {
+        private GrafoCSR grafo;
+        private final Opzioni opzioni;
+        private final GerarchiaContrazioni gerarchia;
+        private final ForkJoinPool pool;
+        private final ArchivioCammini[] righe;
+        private final long[][] coppiePerArco;
+        private final int[] numeroCoppiePerArco;
+        private final int[] obsoletePerArco;
+        private final int[] arcoCercato = new int[1];
+
+        MotoreIncrementale(GrafoCSR grafo, Opzioni opzioni, GerarchiaContrazioni gerarchia) {
+            this.grafo = grafo;
+            this.opzioni = opzioni;
+            this.gerarchia = gerarchia;
+            this.pool = new ForkJoinPool(opzioni.thread);
+            int n = grafo.numeroNodi;
+            this.righe = new ArchivioCammini[n];
+            this.coppiePerArco = new long[grafo.numeroArchi][];
+            this.numeroCoppiePerArco = new int[grafo.numeroArchi];
+            this.obsoletePerArco = new int[grafo.numeroArchi];
+            eseguiInParallelo(n, s -> righe[s] = calcolaRiga(grafo, s, opzioni, gerarchia));
+            for (int s = 0; s < n; s++) {
+                for (int d = 0; d < n; d++) {
+                    if (s != d) {
+                        indicizza(s, d);
+                    }
+                }
+            }
+        }
+
+        ArchivioCammini riga(int sorgente) {
+            return righe[sorgente];
+        }
+
+        GrafoCSR grafo() {
+            return grafo;
+        }
+
+        long[] rimuoviArco(int a, int b) {
+            return aggiornaPeso(a, b, Double.POSITIVE_INFINITY);
+        }
+
+        /* Applica la modifica e restituisce, in ordine crescente, le chiavi delle coppie ricalcolate. Le coppie da
+        ricalcolare si segnano in un BitSet per sorgente, creato solo per le righe interessate. */
+        long[] aggiornaPeso(int a, int b, double peso) {
+            ModificaArco modifica = new ModificaArco(grafo, a, b, peso, opzioni.coda);
+            int n = grafo.numeroNodi;
+            BitSet[] daRicalcolare = new BitSet[n];
+
+            for (int idArco : modifica.archi) {
+                for (int i = 0; i < numeroCoppiePerArco[idArco]; i++) {
+                    long chiave = coppiePerArco[idArco][i];
+                    int s = (int) (chiave / n);
+                    int d = (int) (chiave % n);
+                    if (righe[s].usaArchi(d, modifica.archi)) {
+                        segna(daRicalcolare, s, d);
+                    }
+                }
+                numeroCoppiePerArco[idArco] = 0;
+            }
+            if (modifica.diminuito) {
+                segnaPiuEconomiche(modifica, a, b, daRicalcolare);
+            }
+
+            int numero = 0;
+            for (BitSet riga : daRicalcolare) {
+                numero += riga == null ? 0 : riga.cardinality();
+            }
+            long[] chiavi = new long[numero];
+            numero = 0;
+            for (int s = 0; s < n; s++) {
+                if (daRicalcolare[s] != null) {
+                    for (int d = daRicalcolare[s].nextSetBit(0); d >= 0; d = daRicalcolare[s].nextSetBit(d + 1)) {
+                        chiavi[numero++] = (long) s * n + d;
+                    }
+                }
+            }
+
+            grafo = modifica.grafo;
+            GrafoCSR corrente = grafo;
+            List<List<Cammino>> nuovi = new ArrayList<>(Collections.nCopies(chiavi.length, null));
+            eseguiInParallelo(chiavi.length,
+                    i -> nuovi.set(i, cammini(corrente, (int) (chiavi[i] / n), (int) (chiavi[i] % n), opzioni,
+                            gerarchia)));
+            for (long chiave : chiavi) {
+                dimentica((int) (chiave / n), (int) (chiave % n));
+            }
+            // Le liste dei link modificati sono già state svuotate: non contengono voci non valide.
+            for (int idArco : modifica.archi) {
+                obsoletePerArco[idArco] = 0;
+            }
+            for (int i = 0; i < chiavi.length; i++) {
+                int s = (int) (chiavi[i] / n);
+                int d = (int) (chiavi[i] % n);
+                righe[s].registra(d, nuovi.get(i));
+                indicizza(s, d);
+            }
+            for (int idArco = 0; idArco < obsoletePerArco.length; idArco++) {
+                if (2 * obsoletePerArco[idArco] > numeroCoppiePerArco[idArco]) {
+                    compatta(idArco);
+                }
+            }
+            return chiavi;
+        }
+
+        /* Coppie che possono diventare più economiche passando per il link (a, b) il cui peso è diminuito. Il tratto
+        iniziale s .. a - b di un cammino s .. a - b .. d che non supera il costo di (s, d) non supera il costo di
+        (s, b) (altrimenti il vecchio cammino fino a b, seguito dal tratto finale, costerebbe meno di (s, d)), e lo
+        stesso vale per il tratto finale a - b .. d rispetto al costo di (a, d). Bastano quindi le coppie fra le
+        sorgenti e le destinazioni candidate, nei due versi del link, a cui si applica il controllo di ModificaArco:
+        il costo è proporzionale ai nodi vicini al link invece che a n^2. */
+        private void segnaPiuEconomiche(ModificaArco modifica, int a, int b, BitSet[] daRicalcolare) {
+            for (int verso = 0; verso < 2; verso++) {
+                double[] daInizio = verso == 0 ? modifica.distanzeA : modifica.distanzeB;
+                double[] daFine = verso == 0 ? modifica.distanzeB : modifica.distanzeA;
+                int[] sorgenti = candidati(daInizio, modifica.peso, verso == 0 ? b : a, daFine);
+                int[] destinazioni = candidati(daFine, modifica.peso, verso == 0 ? a : b, daInizio);
+                for (int s : sorgenti) {
+                    for (int d : destinazioni) {
+                        if (s != d && modifica.interessa(s, d, righe[s], d)) {
+                            segna(daRicalcolare, s, d);
+                        }
+                    }
+                }
+            }
+        }
+
+        /* Nodi v per cui distanze[v] + peso (il tratto fra v e il link, attraversato fino all'estremo lontano) non
+        supera il costo della coppia (v, lontano). Il margine è quello del controllo completo, calcolato sul costo
+        massimo che l'altro tratto può aggiungere. */
+        private int[] candidati(double[] distanze, double peso, int lontano, double[] altroTratto) {
+            double massimo = 0.0;
+            for (double distanza : altroTratto) {
+                if (distanza < Double.POSITIVE_INFINITY) {
+                    massimo = Math.max(massimo, distanza);
+                }
+            }
+            int[] nodi = new int[distanze.length];
+            int numero = 0;
+            for (int v = 0; v < distanze.length; v++) {
+                double tratto = distanze[v] + peso;
+                if (tratto == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                double costo = v == lontano ? 0.0 : righe[v].costoMinimo(lontano);
+                if (tratto <= costo + TOLLERANZA * Math.max(1.0, costo + massimo + peso)) {
+                    nodi[numero++] = v;
+                }
+            }
+            return Arrays.copyOf(nodi, numero);
+        }
+
+        private static void segna(BitSet[] daRicalcolare, int sorgente, int destinazione) {
+            if (daRicalcolare[sorgente] == null) {
+                daRicalcolare[sorgente] = new BitSet();
+            }
+            daRicalcolare[sorgente].set(destinazione);
+        }
+
+        // Esegue compito(0 .. numero - 1) in parallelo sul pool del motore.
+        private void eseguiInParallelo(int numero, java.util.function.IntConsumer compito) {
+            pool.submit(() -> java.util.stream.IntStream.range(0, numero).parallel().forEach(compito)).join();
+        }
+
+        public void close() {
+            pool.shutdown();
+        }
+
+        // Conta una voce non valida nelle liste dei link dei cammini attuali della coppia, che sta per essere
+        // ricalcolata.
+        private void dimentica(int sorgente, int destinazione) {
+            ArchivioCammini riga = righe[sorgente];
+            for (int i = 0; i < riga.numeroCammini(destinazione); i++) {
+                int c = riga.cammino(destinazione, i);
+                for (int j = 0; j < riga.lunghezza(c) - 1; j++) {
+                    obsoletePerArco[riga.arco(c, j)]++;
+                }
+            }
+        }
+
+        // Tiene nella lista del link, una volta sola, le coppie i cui cammini lo attraversano ancora.
+        private void compatta(int idArco) {
+            long[] lista = coppiePerArco[idArco];
+            int n = grafo.numeroNodi;
+            arcoCercato[0] = idArco;
+            int numero = 0;
+            for (int i = 0; i < numeroCoppiePerArco[idArco]; i++) {
+                long chiave = lista[i];
+                if (righe[(int) (chiave / n)].usaArchi((int) (chiave % n), arcoCercato)) {
+                    lista[numero++] = chiave;
+                }
+            }
+            Arrays.sort(lista, 0, numero);
+            int distinti = 0;
+            for (int i = 0; i < numero; i++) {
+                if (distinti == 0 || lista[distinti - 1] != lista[i]) {
+                    lista[distinti++] = lista[i];
+                }
+            }
+            numeroCoppiePerArco[idArco] = distinti;
+            obsoletePerArco[idArco] = 0;
+        }
+
+        // Aggiunge la coppia alle liste dell'indice inverso di tutti i link dei suoi cammini.
+        private void indicizza(int sorgente, int destinazione) {
+            ArchivioCammini riga = righe[sorgente];
+            long chiave = (long) sorgente * grafo.numeroNodi + destinazione;
+            for (int i = 0; i < riga.numeroCammini(destinazione); i++) {
+                int c = riga.cammino(destinazione, i);
+                for (int j = 0; j < riga.lunghezza(c) - 1; j++) {
+                    aggiungiAllIndice(riga.arco(c, j), chiave);
+                }
+            }
+        }
+
+        private void aggiungiAllIndice(int idArco, long chiave) {
+            int numero = numeroCoppiePerArco[idArco];
+            if (numero > 0 && coppiePerArco[idArco][numero - 1] == chiave) {
+                return;
+            }
+            if (coppiePerArco[idArco] == null || numero == coppiePerArco[idArco].length) {
+                long[] lista = coppiePerArco[idArco] == null ? new long[0] : coppiePerArco[idArco];
+                coppiePerArco[idArco] = Arrays.copyOf(lista, Math.max(4, 2 * numero));
+            }
+            coppiePerArco[idArco][numeroCoppiePerArco[idArco]++] = chiave;
+        }
+    }
+
+    /* Applica le modifiche elencate nel file (opzione --aggiornamenti) dopo aver calcolato e stampato tutte le
+    coppie. Ogni riga è "aggiorna a b peso" oppure "rimuovi a b" (i nodi anche nella forma Na); per ogni modifica
+    viene stampato il numero di coppie ricalcolate seguito dai loro nuovi cammini. */
+    private static void applicaAggiornamenti(MotoreIncrementale motore, String nomeFile, DestinazioneRisultati uscita)
+            throws IOException {
+        int n = motore.grafo().numeroNodi;
+        try (BufferedReader ingresso = new BufferedReader(new FileReader(nomeFile))) {
+            String riga;
+            while ((riga = ingresso.readLine()) != null) {
+                riga = riga.trim();
+                if (riga.isEmpty()) {
+                    continue;
+                }
+                long[] ricalcolate;
+                try {
+                    ricalcolate = applicaModifica(motore, riga.split("\\s+"));
+                } catch (IllegalArgumentException e) {
+                    uscita.annota("Aggiornamento non valido: " + riga + " (" + e.getMessage() + ")");
+                    continue;
+                }
+                uscita.annota("Aggiornamento: " + riga + ", coppie ricalcolate: " + ricalcolate.length);
+                for (long chiave : ricalcolate) {
+                    int s = (int) (chiave / n);
+                    int d = (int) (chiave % n);
+                    uscita.scrivi(s, d, motore.riga(s), d);
+                }
+            }
+        }
+    }
+
+    // Interpreta ed esegue una modifica "aggiorna a b peso" o "rimuovi a b".
+    private static long[] applicaModifica(MotoreIncrementale motore, String[] parti) {
+        try {
+            if (parti[0].equals("aggiorna") && parti.length == 4) {
+                return motore.aggiornaPeso(nodo(parti[1]), nodo(parti[2]), Double.parseDouble(parti[3]));
+            }
+            if (parti[0].equals("rimuovi") && parti.length == 3) {
+                return motore.rimuoviArco(nodo(parti[1]), nodo(parti[2]));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("numero non valido");
+        }
+        throw new IllegalArgumentException("comando sconosciuto");
+    }
+
+    private static int nodo(String testo) {
+        return Integer.parseInt(testo.startsWith("N") ? testo.substring(1) : testo);
+    }
+
+    /* Cache LRU dei risultati delle coppie, limitata per dimensione: ogni voce pesa 1 più il numero di nodi dei suoi
+    cammini e, quando il peso totale supera la capacità, vengono rimosse le voci usate meno di recente (la
+    LinkedHashMap in ordine di accesso le restituisce per prime). La chiave è sorgente * n + destinazione.
+    I metodi sono sincronizzati perché la cache è condivisa fra le connessioni; il calcolo di una coppia mancante
+    avviene fuori dal lock. */
+    private static final class CacheCammini {
+        private final long capacita;
+        private final LinkedHashMap<Long, List<Cammino>> voci = new LinkedHashMap<>(16, 0.75f, true);
+        private long occupazione;
+        private long successi;
+        private long mancati;
+        private long versione;
+
+        CacheCammini(long capacita) {
+            this.capacita = capacita;
+        }
+
+        synchronized List<Cammino> cerca(long chiave) {
+            List<Cammino> cammini = voci.get(chiave);
+            if (cammini != null) {
+                successi++;
+            } else {
+                mancati++;
+            }
+            return cammini;
+        }
+
+        synchronized long versione() {
+            return versione;
+        }
+
+        /* Inserisce il risultato solo se è stato calcolato sulla versione corrente del grafo: un calcolo iniziato
+        prima di un aggiornamento non deve rientrare nella cache dopo l'invalidazione. */
+        synchronized void inserisci(long chiave, List<Cammino> cammini, long versioneCalcolo) {
+            long peso = peso(cammini);
+            if (peso > capacita || versioneCalcolo != versione) {
+                return;
+            }
+            List<Cammino> precedente = voci.put(chiave, cammini);
+            if (precedente != null) {
+                occupazione -= peso(precedente);
+            }
+            occupazione += peso;
+            Iterator<List<Cammino>> menoRecenti = voci.values().iterator();
+            while (occupazione > capacita) {
+                occupazione -= peso(menoRecenti.next());
+                menoRecenti.remove();
+            }
+        }
+
+        /* Rimuove le voci interessate dalla modifica (vedi ModificaArco) e passa alla versione successiva. */
+        synchronized int invalida(ModificaArco modifica, int numeroNodi) {
+            versione++;
+            int rimosse = 0;
+            Iterator<Map.Entry<Long, List<Cammino>>> voce = voci.entrySet().iterator();
+            while (voce.hasNext()) {
+                Map.Entry<Long, List<Cammino>> corrente = voce.next();
+                long chiave = corrente.getKey();
+                if (modifica.interessa((int) (chiave / numeroNodi), (int) (chiave % numeroNodi), corrente.getValue())) {
+                    occupazione -= peso(corrente.getValue());
+                    voce.remove();
+                    rimosse++;
+                }
+            }
+            return rimosse;
+        }
+
+        synchronized String statistiche() {
+            long richieste = successi + mancati;
+            return "Cache: " + voci.size() + " coppie, occupazione " + occupazione + " su " + capacita
+                    + ", successi " + successi + ", mancati " + mancati
+                    + ", tasso di successo " + (richieste == 0 ? 0.0 : (double) successi / richieste);
+        }
+
+        private static long peso(List<Cammino> cammini) {
+            long peso = 1;
+            for (Cammino c : cammini) {
+                peso += c.nodi.length;
+            }
+            return peso;
+        }
+    }
+
+    /* Modalità server (opzione --server): il grafo viene caricato una sola volta e le richieste arrivano una per
+    riga, dallo standard input oppure, con --porta, da connessioni TCP sull'interfaccia locale (una connessione per
+    thread, al massimo --thread connessioni servite insieme). Una richiesta "s d" (anche nella forma "Ns Nd")
+    riceve i cammini della coppia nel formato di stampaRisultati, calcolati con il motore e il numero di cammini
+    scelti nelle opzioni; "statistiche" riceve i contatori della cache ed "esci" chiude la connessione. Ogni risposta
+    termina con una riga vuota.
+    I comandi "aggiorna a b peso" e "rimuovi a b" modificano un link: il grafo viene sostituito da una copia
+    aggiornata e dalla cache vengono tolte soltanto le coppie interessate dalla modifica. */
+    private static final class ServizioInterrogazioni {
+        private volatile GrafoCSR grafo;
+        private final Opzioni opzioni;
+        private final GerarchiaContrazioni gerarchia;
+        private final CacheCammini cache;
+
+        ServizioInterrogazioni(GrafoCSR grafo, Opzioni opzioni, GerarchiaContrazioni gerarchia) {
+            this.grafo = grafo;
+            this.opzioni = opzioni;
+            this.gerarchia = gerarchia;
+            this.cache = new CacheCammini(opzioni.cache);
+        }
+
+        List<Cammino> interroga(int sorgente, int destinazione) {
+            long versione = cache.versione();
+            GrafoCSR corrente = grafo;
+            long chiave = (long) sorgente * corrente.numeroNodi + destinazione;
+            List<Cammino> cammini = cache.cerca(chiave);
+            if (cammini == null) {
+                cammini = cammini(corrente, sorgente, destinazione, opzioni, gerarchia);
+                cache.inserisci(chiave, cammini, versione);
+            }
+            return cammini;
+        }
+
+        // Le modifiche sono serializzate fra loro; le interrogazioni in corso proseguono sul grafo precedente.
+        synchronized String modifica(String[] parti) {
+            try {
+                int a = nodo(parti[1]);
+                int b = nodo(parti[2]);
+                double peso = parti[0].equals("rimuovi") ? Double.POSITIVE_INFINITY : Double.parseDouble(parti[3]);
+                ModificaArco modifica = new ModificaArco(grafo, a, b, peso, opzioni.coda);
+                grafo = modifica.grafo;
+                return "Link aggiornato, coppie rimosse dalla cache: " + cache.invalida(modifica, grafo.numeroNodi);
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                return "Aggiornamento non valido: " + String.join(" ", parti);
+            }
+        }
+
+        void servi(BufferedReader ingresso, Writer uscita) throws IOException {
+            String riga;
+            while ((riga = ingresso.readLine()) != null) {
+                riga = riga.trim();
+                if (riga.isEmpty()) {
+                    continue;
+                }
+                if (riga.equals("esci")) {
+                    break;
+                }
+                String[] parti = riga.split("\\s+");
+                if (riga.equals("statistiche")) {
+                    uscita.write(cache.statistiche());
+                    uscita.write(System.lineSeparator());
+                } else if ((parti[0].equals("aggiorna") && parti.length == 4)
+                        || (parti[0].equals("rimuovi") && parti.length == 3)) {
+                    uscita.write(modifica(parti));
+                    uscita.write(System.lineSeparator());
+                } else {
+                    int[] coppia = coppia(riga);
+                    if (coppia == null) {
+                        uscita.write("Richiesta non valida: " + riga);
+                        uscita.write(System.lineSeparator());
+                    } else {
+                        stampaRisultati(coppia[0], coppia[1], interroga(coppia[0], coppia[1]), uscita);
+                    }
+                }
+                uscita.write(System.lineSeparator());
+                uscita.flush();
+            }
+            uscita.flush();
+        }
+
+        // Interpreta "s d" o "Ns Nd"; restituisce null se i nodi non esistono o coincidono.
+        private int[] coppia(String riga) {
+            String[] parti = riga.split("\\s+");
+            if (parti.length != 2) {
+                return null;
+            }
+            GrafoCSR grafo = this.grafo;
+            int[] coppia = new int[2];
+            for (int i = 0; i < 2; i++) {
+                String parte = parti[i].startsWith("N") ? parti[i].substring(1) : parti[i];
+                try {
+                    coppia[i] = Integer.parseInt(parte);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (coppia[i] < 0 || coppia[i] >= grafo.numeroNodi) {
+                    return null;
+                }
+            }
+            return coppia[0] != coppia[1] ? coppia : null;
+        }
+
+        void serviStandardInput() throws IOException {
+            servi(new BufferedReader(new InputStreamReader(System.in)),
+                    new BufferedWriter(new OutputStreamWriter(System.out)));
+        }
+
+        /* Il pool ha tanti thread quanti richiesti con --thread e il semaforo impedisce di accettare una connessione
+        finché non c'è un thread libero: le connessioni in eccesso attendono nella coda di ascolto del socket invece di
+        accumularsi in memoria. */
+        void ascolta(int porta) throws IOException {
+            ExecutorService connessioni = Executors.newFixedThreadPool(opzioni.thread);
+            Semaphore liberi = new Semaphore(opzioni.thread);
+            try (ServerSocket server = new ServerSocket(porta, 50, InetAddress.getLoopbackAddress())) {
+                System.out.println("In ascolto sulla porta " + server.getLocalPort());
+                while (true) {
+                    liberi.acquireUninterruptibly();
+                    Socket socket;
+                    try {
+                        socket = server.accept();
+                    } catch (IOException e) {
+                        liberi.release();
+                        throw e;
+                    }
+                    connessioni.execute(() -> {
+                        try (Socket s = socket) {
+                            servi(new BufferedReader(new InputStreamReader(s.getInputStream())),
+                                    new BufferedWriter(new OutputStreamWriter(s.getOutputStream())));
+                        } catch (IOException e) {
+                            System.out.println("Errore nella connessione: " + e.getMessage());
+                        } finally {
+                            liberi.release();
+                        }
+                    });
+                }
+            } finally {
+                connessioni.shutdown();
+            }
+        }
+    }
+
+    /* Opzioni della riga di comando: il primo parametro è sempre il nome del file di input, seguito dalle opzioni
+    facoltative. Un valore non valido viene segnalato con una IllegalArgumentException il cui messaggio viene
+    stampato dal main. */
+    private static final class Opzioni {
+        static final String USO = "Esempio: java Esercizio3 <nome_file> [opzioni]\n"
+                + "  --thread <k>   calcola le coppie con k thread (default 1)\n"
+                + "  --batch        un albero dei cammini minimi per sorgente, coppie simmetriche calcolate una volta\n"
+                + "  --motore <m>   avido (default) oppure suurballe\n"
+                + "  --cammini <k>  numero massimo di cammini disgiunti per coppia (default 3)\n"
+                + "  --confronta    confronta i due motori su tutte le coppie e stampa un riepilogo\n"
+                + "  --coda <tipo>  coda di priorità: binario (default), quaternario, radix oppure oggetti\n"
+                + "                 (oggetti: il MinHeap originale, stessi cammini del programma originale)\n"
+                + "  --uscita <f>   scrive i cammini nel file di testo f invece che a video\n"
+                + "  --binario <f>  scrive i cammini nel file f in formato binario compatto\n"
+                + "  --leggi        il file di input è un file binario di risultati da convertire in testo\n"
+                + "  --thread-lettura <k>  legge i link del file con k thread (default 1)\n"
+                + "  --server       risponde alle richieste \"s d\" lette dallo standard input\n"
+                + "  --porta <p>    con --server, accetta le richieste via TCP sulla porta locale p\n"
+                + "                 (al massimo --thread connessioni servite insieme)\n"
+                + "  --cache <c>    capacità della cache del server, in nodi memorizzati (default 1000000)\n"
+                + "  --aggiornamenti <f>  dopo il calcolo applica le modifiche ai link elencate nel file f\n"
+                + "  --gerarchia <f>  primo cammino di ogni coppia con una gerarchia di contrazione (motore avido),\n"
+                + "                 caricata dal file f se costruita per lo stesso grafo, "
+                + "altrimenti costruita e salvata\n"
+                + "                 (non usata dalle righe calcolate con --batch)\n"
+                + "  --metriche <f> a fine esecuzione scrive le metriche sullo standard error, "
+                + "in formato json o prometheus\n"
+                + "  --intervallo-metriche <s>  con --metriche, le scrive anche ogni s secondi";
+
+        String nomeFile;
+        int thread = 1;
+        boolean batch;
+        Motore motore = Motore.AVIDO;
+        int cammini = NUMERO_CAMMINI;
+        boolean confronta;
+        TipoCoda coda = TipoCoda.BINARIO;
+        String uscita;
+        String binario;
+        boolean leggi;
+        int threadLettura = 1;
+        boolean server;
+        int porta = -1;
+        int cache = 1_000_000;
+        String aggiornamenti;
+        String gerarchia;
+        FormatoMetriche metriche;
+        int intervalloMetriche;
+
+        static Opzioni leggi(String[] args) {
+            if (args.length < 1) {
+                throw new IllegalArgumentException("Parametro mancante");
+            }
+            Opzioni opzioni = new Opzioni();
+            opzioni.nomeFile = args[0];
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--thread":
+                        opzioni.thread = intero(args, ++i, 1);
+                        break;
+                    case "--batch":
+                        opzioni.batch = true;
+                        break;
+                    case "--motore":
+                        opzioni.motore = Motore.daNome(valore(args, ++i));
+                        break;
+                    case "--cammini":
+                        opzioni.cammini = intero(args, ++i, 1);
+                        break;
+                    case "--confronta":
+                        opzioni.confronta = true;
+                        break;
+                    case "--coda":
+                        opzioni.coda = TipoCoda.daNome(valore(args, ++i));
+                        break;
+                    case "--uscita":
+                        opzioni.uscita = valore(args, ++i);
+                        break;
+                    case "--binario":
+                        opzioni.binario = valore(args, ++i);
+                        break;
+                    case "--leggi":
+                        opzioni.leggi = true;
+                        break;
+                    case "--thread-lettura":
+                        opzioni.threadLettura = intero(args, ++i, 1);
+                        break;
+                    case "--server":
+                        opzioni.server = true;
+                        break;
+                    case "--porta":
+                        opzioni.porta = intero(args, ++i, 0);
+                        break;
+                    case "--cache":
+                        opzioni.cache = intero(args, ++i, 0);
+                        break;
+                    case "--aggiornamenti":
+                        opzioni.aggiornamenti = valore(args, ++i);
+                        break;
+                    case "--gerarchia":
+                        opzioni.gerarchia = valore(args, ++i);
+                        break;
+                    case "--metriche":
+                        opzioni.metriche = FormatoMetriche.daNome(valore(args, ++i));
+                        break;
+                    case "--intervallo-metriche":
+                        opzioni.intervalloMetriche = intero(args, ++i, 1);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Opzione non valida: " + args[i]);
+                }
+            }
+            return opzioni;
+        }
+
+        static String valore(String[] args, int i) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException("Valore mancante per l'opzione " + args[i - 1]);
+            }
+            return args[i];
+        }
+
+        static int intero(String[] args, int i, int minimo) {
+            String valore = valore(args, i);
+            try {
+                int risultato = Integer.parseInt(valore);
+                if (risultato >= minimo) {
+                    return risultato;
+                }
+            } catch (NumberFormatException e) {
+                // segnalato sotto insieme ai valori fuori intervallo
+            }
+            throw new IllegalArgumentException("Valore non valido per l'opzione " + args[i - 1] + ": " + valore);
+        }
+    }
+
+    /* Calcola i cammini di tutte le coppie che hanno come sorgente il nodo indicato (una riga dell'output) e li
+    conserva in un ArchivioCammini con la destinazione come gruppo; la sorgente stessa non viene registrata. */
+    private static ArchivioCammini calcolaRiga(GrafoCSR grafo, int sorgente, Opzioni opzioni,
+            GerarchiaContrazioni gerarchia) {
+        ArchivioCammini riga = new ArchivioCammini(grafo.numeroNodi);
+        for (int d = 0; d < grafo.numeroNodi; d++) {
+            if (d != sorgente) {
+                riga.registra(d, cammini(grafo, sorgente, d, opzioni, gerarchia));
+            }
+        }
+        return riga;
+    }
+
+    /* Esecuzione a righe: ogni riga viene affidata come task a un ForkJoinPool con il numero di thread richiesto.
+    Le righe vengono stampate nell'ordine delle sorgenti attendendo il task corrispondente, per cui l'ordine
+    dell'output è identico a quello sequenziale; al massimo 4 righe per thread sono in volo contemporaneamente, così i
+    risultati già pronti ma non ancora stampati restano in numero limitato.
+    In modalità batch la riga s contiene solo le destinazioni d > s; le coppie (s, d) con d < s vengono stampate
+    invertendo i cammini della riga d, che restano in memoria in forma compatta (ArchivioCammini) solo finché non sono
+    stati stampati: ogni gruppo viene liberato appena usato e la riga viene rilasciata quando non ha più cammini. */
+    private static void calcolaPerRighe(GrafoCSR grafo, Opzioni opzioni, GerarchiaContrazioni gerarchia,
+            DestinazioneRisultati uscita) throws IOException {
+        int n = grafo.numeroNodi;
+        boolean batch = opzioni.batch;
+        ForkJoinPool pool = new ForkJoinPool(opzioni.thread);
+        try {
+            int finestra = 4 * opzioni.thread;
+            ArrayDeque<ForkJoinTask<ArchivioCammini>> inVolo = new ArrayDeque<>();
+            List<ArchivioCammini> righe = new ArrayList<>(n);
+            int prossima = 0;
+            for (int s = 0; s < n; s++) {
+                while (prossima < n && inVolo.size() < finestra) {
+                    final int sorgente = prossima++;
+                    inVolo.add(pool.submit(() -> batch ? calcolaRigaBatch(grafo, sorgente, opzioni)
+                            : calcolaRiga(grafo, sorgente, opzioni, gerarchia)));
+                }
+                ArchivioCammini riga = inVolo.poll().join();
+                for (int d = 0; d < n; d++) {
+                    if (batch && d < s) {
+                        // Una riga rilasciata non aveva più cammini: nemmeno la coppia (d, s) ne ha.
+                        ArchivioCammini rigaD = righe.get(d);
+                        List<Cammino> cammini = new ArrayList<>();
+                        if (rigaD != null) {
+                            for (Cammino c : rigaD.cammini(s)) {
+                                cammini.add(inverti(c));
+                            }
+                            rigaD.libera(s);
+                            if (rigaD.vuoto()) {
+                                righe.set(d, null);
+                            }
+                        }
+                        uscita.scrivi(s, d, cammini);
+                    } else if (s != d) {
+                        uscita.scrivi(s, d, riga, d);
+                    }
+                }
+                righe.add(batch ? riga : null);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /* Confronto A/B fra il motore avido e il motore Suurballe: per ogni coppia esegue entrambi i motori sullo stesso
+    thread e accumula per ciascuno il numero di ricerche di dijkstra, il tempo impiegato e i cammini trovati, poi
+    stampa un riepilogo al posto dei cammini. I risultati di ogni coppia passano da un piccolo ArchivioCammini, un
+    gruppo per motore, che verifica anche che i cammini siano davvero disgiunti. */
+    private static void confrontaMotori(GrafoCSR grafo, int k, TipoCoda coda) {
+        SpazioLavoro spazio = spazioLavoro(grafo, coda);
+        int n = grafo.numeroNodi;
+        long[] ricerche = new long[2];
+        long[] tempi = new long[2];
+        long[] trovati = new long[2];
+        long[] coppieMultiple = new long[2];
+        long[] coppieNonDisgiunte = new long[2];
+        ArchivioCammini verifica = new ArchivioCammini(2);
+        long coppieMigliorate = 0;
+        long coppiePeggiorate = 0;
+
+        for (int s = 0; s < n; s++) {
+            for (int d = 0; d < n; d++) {
+                if (s == d) {
+                    continue;
+                }
+                int[] numero = new int[2];
+                for (int motore = 0; motore < 2; motore++) {
+                    long ricercheIniziali = spazio.ricerche;
+                    long inizio = System.nanoTime();
+                    List<Cammino> cammini = motore == 0 ? trovaCamminiDistinti(grafo, s, d, k, coda)
+                            : trovaCamminiSuurballe(grafo, s, d, k, coda);
+                    tempi[motore] += System.nanoTime() - inizio;
+                    ricerche[motore] += spazio.ricerche - ricercheIniziali;
+                    numero[motore] = cammini.size();
+                    trovati[motore] += cammini.size();
+                    if (cammini.size() > 1) {
+                        coppieMultiple[motore]++;
+                    }
+                    verifica.registra(motore, cammini);
+                    if (!verifica.disgiunti(motore)) {
+                        coppieNonDisgiunte[motore]++;
+                    }
+                }
+                if (numero[1] > numero[0]) {
+                    coppieMigliorate++;
+                } else if (numero[1] < numero[0]) {
+                    coppiePeggiorate++;
+                }
+            }
+        }
+
+        System.out.println("Confronto fra motori su " + ((long) n * (n - 1)) + " coppie, al massimo " + k + " cammini");
+        String[] nomi = {"avido", "suurballe"};
+        for (int motore = 0; motore < 2; motore++) {
+            System.out.println(nomi[motore] + ": ricerche dijkstra " + ricerche[motore]
+                    + ", tempo " + (tempi[motore] / 1e9) + " secondi"
+                    + ", cammini trovati " + trovati[motore]
+                    + ", coppie con almeno 2 cammini " + coppieMultiple[motore]
+                    + ", coppie con cammini non disgiunti " + coppieNonDisgiunte[motore]);
+        }
+        System.out.println("Coppie con cammini in aggiunta per suurballe: " + coppieMigliorate
+                + ", con cammini in meno: " + coppiePeggiorate);
+    }
+
+    /* Il main utilizza un doppio ciclo for annidato, per scorrere tutte le possibili coppie di nodi, per ogni
+    coppia richiama il metodo torvaCamminiDistinti. Con l'opzione --thread <k> (k > 1) o --batch le coppie vengono
+    invece calcolate per righe tramite calcolaPerRighe. I risultati di ogni coppia vengono consegnati appena pronti
+    alla destinazione scelta (testo bufferizzato oppure formato binario con --binario). Calcola il tempo totale
+    impiegato per ottenere la soluzione tramite currentTimeMillis. */
+    public static void main(String[] args) {
+        Locale.setDefault(Locale.US);
+
+        Opzioni opzioni;
+        try {
+            opzioni = Opzioni.leggi(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage() + "\n" + Opzioni.USO);
+            return;
+        }
+
+        if (opzioni.leggi) {
+            try (DestinazioneRisultati uscita = new UscitaTesto(opzioni.uscita)) {
+                leggiRisultatiBinari(opzioni.nomeFile, uscita);
+            } catch (IOException e) {
+                System.out.println("Errore nella lettura dei risultati: " + e.getMessage());
+            }
+            return;
+        }
+
+        long inizioTempo = System.currentTimeMillis();
+        if (opzioni.metriche != null) {
+            Metriche.attive = true;
+            if (opzioni.intervalloMetriche > 0) {
+                Metriche.esportaOgni(opzioni.metriche, opzioni.intervalloMetriche);
+            }
+        }
+
+        long inizioLettura = System.nanoTime();
+        GrafoCSR grafo = costruisciGrafo(opzioni.nomeFile, opzioni.threadLettura);
+        Metriche.tempoLettura = (System.nanoTime() - inizioLettura) / 1e9;
+        int n = grafo.numeroNodi;
+        if (opzioni.coda == TipoCoda.RADIX && grafo.scalaPesi == 0) {
+            System.out.println("La coda radix richiede pesi interi o con al massimo 6 decimali");
+            return;
+        }
+        GerarchiaContrazioni gerarchia = opzioni.gerarchia != null && opzioni.motore == Motore.AVIDO
+                ? GerarchiaContrazioni.caricaOCostruisci(opzioni.gerarchia, grafo) : null;
+
+        if (opzioni.server) {
+            ServizioInterrogazioni servizio = new ServizioInterrogazioni(grafo, opzioni, gerarchia);
+            try {
+                if (opzioni.porta >= 0) {
+                    servizio.ascolta(opzioni.porta);
+                } else {
+                    servizio.serviStandardInput();
+                }
+            } catch (IOException e) {
+                System.out.println("Errore nel server: " + e.getMessage());
+            }
+            if (opzioni.metriche != null) {
+                Metriche.esporta(opzioni.metriche);
+            }
+            return;
+        }
+
+        if (opzioni.confronta) {
+            confrontaMotori(grafo, opzioni.cammini, opzioni.coda);
+        } else {
+            try (DestinazioneRisultati uscita = opzioni.binario != null ? new UscitaBinaria(opzioni.binario, n)
+                    : new UscitaTesto(opzioni.uscita)) {
+                if (opzioni.aggiornamenti != null) {
+                    try (MotoreIncrementale motore = new MotoreIncrementale(grafo, opzioni, gerarchia)) {
+                        for (int s = 0; s < n; s++) {
+                            for (int d = 0; d < n; d++) {
+                                if (s != d) {
+                                    uscita.scrivi(s, d, motore.riga(s), d);
+                                }
+                            }
+                        }
+                        applicaAggiornamenti(motore, opzioni.aggiornamenti, uscita);
+                    }
+                } else if (opzioni.thread > 1 || opzioni.batch) {
+                    calcolaPerRighe(grafo, opzioni, gerarchia, uscita);
+                } else {
+                    for (int s = 0; s < n; s++) {
+                        for (int d = 0; d < n; d++) {
+                            if (s != d) {
+                                List<Cammino> cammini = cammini(grafo, s, d, opzioni, gerarchia);
+                                uscita.scrivi(s, d, cammini);
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Errore nella scrittura dei risultati: " + e.getMessage());
+                return;
+            }
+        }
+
+        long fineTempo = System.currentTimeMillis();
+        double tempoTotale = (fineTempo - inizioTempo) / 1000.0;
+        System.out.println("Tempo totale: " + tempoTotale + " secondi" );
+        if (opzioni.metriche != null) {
+            Metriche.esporta(opzioni.metriche);
+        }
     }
 }